@@ -0,0 +1,161 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates a synthetic in-domain and mix-domain parallel corpus with a
+ * planted in-domain subset:
+ * 
+ * <pre>
+ * indomain.src, indomain.trg      in-domain pairs, 1/20 of the mix-domain size
+ * mixdomain.src, mixdomain.trg    general pairs with 5% in-domain pairs mixed in
+ * mixdomain.planted               numbers (1-based) of the in-domain pairs
+ * </pre>
+ * 
+ * Source words are drawn from a Zipf distribution over a general
+ * vocabulary; a share of the words of in-domain sentences comes from a
+ * smaller Zipf distribution over domain terms instead. Target sentences
+ * translate the source words one by one (t&lt;word&gt;), with dropped and
+ * inserted words; in-domain sentences often use a domain sense of a word
+ * (d&lt;word&gt;), so the domains differ in the translation tables as well
+ * as in the language models. Sentence lengths are log-normal with a
+ * median of 18 words.
+ * 
+ * Usage: CorpusGenerator &lt;directory&gt; &lt;mix-domain pairs&gt; [seed]
+ */
+
+public class CorpusGenerator {
+
+	static final int VOCABULARY = 100000;
+	static final int DOMAIN_TERMS = 2000;
+	static final double DOMAIN_RATE = 0.3;
+	static final double SENSE_RATE = 0.5;
+	static final double DROP_RATE = 0.1;
+	static final double INSERT_RATE = 0.1;
+	static final double PLANTED_RATE = 0.05;
+	static final int MAX_LENGTH = 100;
+
+	final Random random;
+	final Zipf general;
+	final Zipf terms;
+	final int termWords[] = new int[DOMAIN_TERMS];
+	final int words[] = new int[MAX_LENGTH];
+
+	public CorpusGenerator(long seed) {
+		random = new Random(seed);
+		general = new Zipf(VOCABULARY, 1.0, random.nextLong());
+		terms = new Zipf(DOMAIN_TERMS, 1.0, random.nextLong());
+		// domain terms are rare in general text
+		for (int i = 0; i < DOMAIN_TERMS; i++) {
+			termWords[i] = VOCABULARY / 10 + random.nextInt(VOCABULARY * 9 / 10);
+		}
+	}
+
+	int length() {
+		double length = 18 * Math.exp(0.5 * random.nextGaussian());
+		return (int) Math.max(1, Math.min(MAX_LENGTH, Math.round(length)));
+	}
+
+	/**
+	 * Writes one sentence pair as a line of each writer.
+	 */
+	void pair(boolean inDomain, OutputWriter src, OutputWriter trg)
+			throws IOException {
+		int length = length();
+		for (int i = 0; i < length; i++) {
+			words[i] = inDomain && random.nextDouble() < DOMAIN_RATE ? termWords[terms
+					.rank()] : general.rank();
+			if (i > 0) {
+				src.print(' ');
+			}
+			src.print('s');
+			src.print(words[i]);
+		}
+		src.println();
+		boolean first = true;
+		for (int i = 0; i < length; i++) {
+			if (random.nextDouble() >= DROP_RATE) {
+				first = word(trg, first, inDomain
+						&& random.nextDouble() < SENSE_RATE ? 'd' : 't',
+						words[i]);
+			}
+			if (random.nextDouble() < INSERT_RATE) {
+				first = word(trg, first, 't', general.rank());
+			}
+		}
+		trg.println();
+	}
+
+	private static boolean word(OutputWriter out, boolean first, char prefix,
+			int word) throws IOException {
+		if (!first) {
+			out.print(' ');
+		}
+		out.print(prefix);
+		out.print(word);
+		return false;
+	}
+
+	public static void generate(File dir, int pairs, long seed)
+			throws IOException {
+		dir.mkdirs();
+		CorpusGenerator generator = new CorpusGenerator(seed);
+
+		OutputWriter src = OutputWriter.create(new File(dir, "indomain.src")
+				.getPath());
+		OutputWriter trg = OutputWriter.create(new File(dir, "indomain.trg")
+				.getPath());
+		for (int sent = 0; sent < Math.max(1, pairs / 20); sent++) {
+			generator.pair(true, src, trg);
+		}
+		src.close();
+		trg.close();
+
+		src = OutputWriter.create(new File(dir, "mixdomain.src").getPath());
+		trg = OutputWriter.create(new File(dir, "mixdomain.trg").getPath());
+		OutputWriter planted = OutputWriter.create(new File(dir,
+				"mixdomain.planted").getPath());
+		for (int sent = 0; sent < pairs; sent++) {
+			boolean inDomain = generator.random.nextDouble() < PLANTED_RATE;
+			generator.pair(inDomain, src, trg);
+			if (inDomain) {
+				planted.print(sent + 1);
+				planted.println();
+			}
+		}
+		src.close();
+		trg.close();
+		planted.close();
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 2) {
+			System.out
+					.println("Usage: CorpusGenerator <directory> <mix-domain pairs> [seed]");
+			return;
+		}
+		generate(new File(args[0]), Integer.parseInt(args[1]),
+				args.length > 2 ? Long.parseLong(args[2]) : 1);
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * InvitationModel.logAdd with the exact and the table implementation,
+ * folded over log-probabilities in the range of translation table entries.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogAddBenchmark {
+
+	static final int SIZE = 1024;
+
+	@Param({ "exact", "table" })
+	String logAdd;
+
+	float values[] = new float[SIZE];
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		for (int i = 0; i < SIZE; i++) {
+			values[i] = -20 * random.nextFloat();
+		}
+		InvitationModel.LOG_ADD_TABLE = logAdd.equals("table");
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SIZE)
+	public float logAdd() {
+		float sum = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < SIZE; i++) {
+			sum = InvitationModel.logAdd(sum, values[i]);
+		}
+		return sum;
+	}
+
+}
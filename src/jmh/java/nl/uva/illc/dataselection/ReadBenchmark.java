@@ -0,0 +1,80 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tokenization and encoding of a text corpus as done by
+ * InvitationModel.readFile, without writing the encoded files.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+	@Param({ "100000" })
+	int sentences;
+
+	@Param({ "1" })
+	int threads;
+
+	File file;
+	ForkJoinPool pool;
+
+	@Setup
+	public void setup() throws IOException {
+		file = File.createTempFile("zipf", ".txt");
+		Zipf.writeText(new Zipf(50000, 1.0, 1).corpus(sentences, 5, 40),
+				file.getPath());
+		pool = new ForkJoinPool(threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+		file.delete();
+	}
+
+	@Benchmark
+	public Corpus readFile() throws IOException, InterruptedException {
+		return CorpusReader.read(file.getPath(), new Vocabulary(2), pool);
+	}
+
+}
@@ -0,0 +1,376 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * End-to-end scalability runs of InvitationModel on synthetic corpora (see
+ * CorpusGenerator) for every combination of corpus size and thread count.
+ * Every run is a fresh JVM with the JVM options of the harness, in its own
+ * directory next to the generated corpora. It records the time of the
+ * phases readFiles, initialize, burnIN, createLM and training, the peak
+ * heap and the recall of the planted in-domain pairs among the best ranked
+ * sentences of the last iteration. The results are printed and appended to
+ * scalability.csv.
+ * 
+ * Usage: ScalabilityBenchmark [directory] [pairs,...] [threads,...]
+ * [InvitationModel options]
+ * 
+ * The defaults are the directory scalability, 100000,1000000,10000000 pairs
+ * and 1, 2, 4, ... threads up to the number of cores.
+ */
+
+public class ScalabilityBenchmark {
+
+	static final String COLUMNS = "pairs,threads,read,initialize,burnIN,createLM,training,total,peakHeapMB,recall";
+
+	public static void main(String args[]) throws IOException,
+			InterruptedException {
+		File dir = new File(args.length > 0 ? args[0] : "scalability");
+		int sizes[] = parse(args.length > 1 ? args[1]
+				: "100000,1000000,10000000");
+		int threads[] = parse(args.length > 2 ? args[2] : defaultThreads());
+		String options[] = Arrays.copyOfRange(args, Math.min(3, args.length),
+				args.length);
+
+		dir.mkdirs();
+		File results = new File(dir, "scalability.csv");
+		boolean header = !results.exists();
+		PrintWriter csv = new PrintWriter(new FileWriter(results, true));
+		if (header) {
+			csv.println(COLUMNS);
+		}
+		System.out.println(COLUMNS);
+
+		for (int pairs : sizes) {
+			File data = new File(dir, "pairs-" + pairs);
+			if (!new File(data, "mixdomain.planted").exists()) {
+				System.out.println("Generating " + pairs + " pairs in " + data);
+				CorpusGenerator.generate(data, pairs, 1);
+			}
+			for (int t : threads) {
+				String result = run(data, t, options);
+				String line = pairs + "," + t + "," + result;
+				System.out.println(line);
+				csv.println(line);
+				csv.flush();
+			}
+		}
+		csv.close();
+	}
+
+	/**
+	 * Runs InvitationModel in a new JVM in data/threads-t and returns its
+	 * result columns.
+	 */
+	static String run(File data, int threads, String options[])
+			throws IOException, InterruptedException {
+		File dir = new File(data, "threads-" + threads);
+		if (dir.exists()) {
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+		}
+		dir.mkdirs();
+		for (String name : new String[] { "indomain.src", "indomain.trg",
+				"mixdomain.src", "mixdomain.trg", "mixdomain.planted" }) {
+			Files.createSymbolicLink(new File(dir, name).toPath(), new File(
+					data, name).getAbsoluteFile().toPath());
+		}
+
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java")
+				.getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.add("-cp");
+		command.add(classPath());
+		command.add(Run.class.getName());
+		command.addAll(Arrays.asList("-cin", "indomain", "-cmix",
+				"mixdomain", "-src", "src", "-trg", "trg", "-t",
+				Integer.toString(threads)));
+		command.addAll(Arrays.asList(options));
+
+		Process process = new ProcessBuilder(command).directory(dir)
+				.redirectErrorStream(true).start();
+		String result = null;
+		PrintWriter log = new PrintWriter(new File(dir, "log.txt"));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				process.getInputStream()));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			log.println(line);
+			if (line.startsWith(Run.RESULT)) {
+				result = line.substring(Run.RESULT.length());
+			}
+		}
+		log.close();
+		if (process.waitFor() != 0 || result == null) {
+			throw new IOException("Run in " + dir + " failed, see log.txt");
+		}
+		return result;
+	}
+
+	/**
+	 * The class path of the harness with absolute entries, since the runs
+	 * have a different working directory.
+	 */
+	static String classPath() {
+		StringBuilder classPath = new StringBuilder();
+		for (String entry : System.getProperty("java.class.path").split(
+				File.pathSeparator)) {
+			if (classPath.length() > 0) {
+				classPath.append(File.pathSeparatorChar);
+			}
+			classPath.append(new File(entry).getAbsolutePath());
+		}
+		return classPath.toString();
+	}
+
+	static int[] parse(String list) {
+		String values[] = list.split(",");
+		int parsed[] = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			parsed[i] = Integer.parseInt(values[i].trim());
+		}
+		return parsed;
+	}
+
+	static String defaultThreads() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		StringBuilder threads = new StringBuilder("1");
+		for (int t = 2; t < cores; t *= 2) {
+			threads.append(',').append(t);
+		}
+		if (cores > 1) {
+			threads.append(',').append(cores);
+		}
+		return threads.toString();
+	}
+
+	/**
+	 * One timed run of the phases of InvitationModel.main in the current
+	 * directory.
+	 */
+	public static class Run {
+
+		static final String RESULT = "RESULT ";
+
+		// the largest heap usage seen so far
+		static final AtomicLong peakHeap = new AtomicLong();
+
+		public static void main(String args[]) throws IOException,
+				InterruptedException {
+			watchHeap();
+			InvitationModel.processCommandLineArguments(args);
+
+			long phases[] = new long[6];
+			phases[0] = System.nanoTime();
+			InvitationModel.readFiles();
+			phases[1] = System.nanoTime();
+			InvitationModel.initialize();
+			phases[2] = System.nanoTime();
+			InvitationModel.burnIN();
+			phases[3] = System.nanoTime();
+			InvitationModel.createLM();
+			phases[4] = System.nanoTime();
+			InvitationModel.training();
+
+			InvitationModel.jobs.shutdown();
+			InvitationModel.writer.shutdown();
+			InvitationModel.pool.shutdown();
+			InvitationModel.jobs.awaitTermination(1, TimeUnit.DAYS);
+			InvitationModel.writer.awaitTermination(1, TimeUnit.DAYS);
+			phases[5] = System.nanoTime();
+
+			StringBuilder result = new StringBuilder(RESULT);
+			for (int i = 1; i < phases.length; i++) {
+				result.append(seconds(phases[i] - phases[i - 1])).append(',');
+			}
+			result.append(seconds(phases[5] - phases[0])).append(',');
+			result.append(peakHeap() >> 20).append(',');
+			result.append(String.format("%.4f", recall()));
+			System.out.println(result);
+			System.exit(0);
+		}
+
+		static String seconds(long nanos) {
+			return String.format("%.2f", nanos / 1e9);
+		}
+
+		/**
+		 * Records the heap usage right before every garbage collection. The
+		 * used heap only shrinks in a collection, so its peak is the largest
+		 * of these or the usage at the end. The peak usages of the single
+		 * pools can not simply be added up: they are reached at different
+		 * times, and their sum overstates the peak by up to the young
+		 * generation.
+		 */
+		static void watchHeap() {
+			final Set<String> heapPools = new HashSet<String>();
+			for (MemoryPoolMXBean memory : ManagementFactory
+					.getMemoryPoolMXBeans()) {
+				if (memory.getType() == MemoryType.HEAP) {
+					heapPools.add(memory.getName());
+				}
+			}
+			NotificationListener listener = new NotificationListener() {
+
+				@Override
+				public void handleNotification(Notification notification,
+						Object handback) {
+					if (!notification.getType().equals(
+							GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+						return;
+					}
+					Map<String, MemoryUsage> before = GarbageCollectionNotificationInfo
+							.from((CompositeData) notification.getUserData())
+							.getGcInfo().getMemoryUsageBeforeGc();
+					long used = 0;
+					for (Map.Entry<String, MemoryUsage> pool : before
+							.entrySet()) {
+						if (heapPools.contains(pool.getKey())) {
+							used += pool.getValue().getUsed();
+						}
+					}
+					recordHeap(used);
+				}
+			};
+			for (GarbageCollectorMXBean collector : ManagementFactory
+					.getGarbageCollectorMXBeans()) {
+				if (collector instanceof NotificationEmitter) {
+					((NotificationEmitter) collector).addNotificationListener(
+							listener, null, null);
+				}
+			}
+		}
+
+		static void recordHeap(long used) {
+			long peak;
+			do {
+				peak = peakHeap.get();
+			} while (used > peak && !peakHeap.compareAndSet(peak, used));
+		}
+
+		/**
+		 * Peak heap usage of the run: the largest usage before a collection
+		 * or the current one.
+		 */
+		static long peakHeap() {
+			recordHeap(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+					.getUsed());
+			return peakHeap.get();
+		}
+
+		/**
+		 * Share of the planted pairs among the as many best sentences of the
+		 * last ranking.
+		 */
+		static double recall() throws IOException {
+			SentenceMask planted = new SentenceMask();
+			BufferedReader reader = new BufferedReader(new FileReader(
+					"mixdomain.planted"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				planted.add(Integer.parseInt(line) - 1);
+			}
+			reader.close();
+			if (planted.size() == 0) {
+				return Double.NaN;
+			}
+
+			int ranked[] = lastRanking(planted.size());
+			int hits = 0;
+			for (int sent : ranked) {
+				if (planted.contains(sent)) {
+					hits++;
+				}
+			}
+			return (double) hits / planted.size();
+		}
+
+		/**
+		 * The count best sentences (0-based) of the ranking of the last
+		 * iteration, in the text or the binary format.
+		 */
+		static int[] lastRanking(int count) throws IOException {
+			boolean binary = InvitationModel.OUTPUT_FORMAT.equals("binary");
+			String suffix = binary ? ".bin" : ".txt";
+			int last = 1;
+			while (new File(InvitationModel.OUTPUT + "_" + (last + 1)
+					+ suffix).exists()) {
+				last++;
+			}
+			File file = new File(InvitationModel.OUTPUT + "_" + last + suffix);
+			int ranked[];
+			if (binary) {
+				ByteBuffer buffer = ByteBuffer.wrap(
+						Files.readAllBytes(file.toPath())).order(
+						ByteOrder.LITTLE_ENDIAN);
+				ranked = new int[Math.min(count, buffer.getInt(8))];
+				for (int rank = 0; rank < ranked.length; rank++) {
+					ranked[rank] = buffer.getInt(12 + 12 * rank);
+				}
+			} else {
+				ranked = new int[count];
+				int rank = 0;
+				BufferedReader reader = new BufferedReader(new FileReader(file));
+				String line;
+				while (rank < count && (line = reader.readLine()) != null) {
+					ranked[rank++] = Integer.parseInt(line.substring(0,
+							line.indexOf('\t'))) - 1;
+				}
+				reader.close();
+				ranked = Arrays.copyOf(ranked, rank);
+			}
+			return ranked;
+		}
+
+	}
+
+}
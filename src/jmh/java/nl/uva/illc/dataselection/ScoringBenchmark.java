@@ -0,0 +1,81 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scoring of one sentence pair with InvitationModel.calculateProb, per
+ * scoring engine and with a mutable or a frozen table.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoringBenchmark {
+
+	@Param({ "pairwise", "lse", "vector" })
+	String engine;
+
+	@Param({ "true", "false" })
+	boolean frozen;
+
+	@Param({ "50000" })
+	int vocabulary;
+
+	Corpus src;
+	Corpus trg;
+	TranslationTable table;
+	int sent = 0;
+
+	@Setup
+	public void setup() {
+		src = new Zipf(vocabulary, 1.0, 1).corpus(10000, 5, 40);
+		trg = new Zipf(vocabulary, 1.0, 2).corpus(10000, 5, 40);
+		table = Zipf.table(src, trg);
+		if (frozen) {
+			table.freeze();
+		}
+		InvitationModel.scoring = ScoringEngine.forName(engine);
+	}
+
+	@Benchmark
+	public float calculateProb() {
+		sent = sent + 1 == src.size() ? 0 : sent + 1;
+		return InvitationModel.calculateProb(src.words(), src.start(sent),
+				src.end(sent), trg.words(), trg.start(sent), trg.end(sent),
+				table);
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and updates of a TranslationTable estimated from Zipf corpora.
+ * get and getAlignment run on the mutable or the frozen table, increas and
+ * normalize always on the mutable one.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslationTableBenchmark {
+
+	@State(Scope.Thread)
+	public abstract static class Pairs {
+
+		@Param({ "50000" })
+		int vocabulary;
+
+		Corpus src;
+		Corpus trg;
+		TranslationTable table;
+		int sent = 0;
+		int word = 0;
+
+		abstract boolean frozen();
+
+		@Setup
+		public void setup() {
+			src = new Zipf(vocabulary, 1.0, 1).corpus(10000, 5, 40);
+			trg = new Zipf(vocabulary, 1.0, 2).corpus(10000, 5, 40);
+			table = Zipf.table(src, trg);
+			if (frozen()) {
+				table.freeze();
+			}
+		}
+
+		/**
+		 * Steps through the word pairs of the corpora, so hits are as
+		 * frequent as in scoring.
+		 */
+		int nextTarget() {
+			if (++word >= trg.end(sent)) {
+				sent = sent + 1 == src.size() ? 0 : sent + 1;
+				word = trg.start(sent);
+			}
+			return trg.words()[word];
+		}
+
+		int source() {
+			return src.words()[src.start(sent) + word % src.length(sent)];
+		}
+
+	}
+
+	public static class Table extends Pairs {
+
+		@Param({ "true", "false" })
+		boolean frozen;
+
+		@Override
+		boolean frozen() {
+			return frozen;
+		}
+
+	}
+
+	/**
+	 * A table that is never frozen, for the updates.
+	 */
+	public static class MutableTable extends Pairs {
+
+		@Override
+		boolean frozen() {
+			return false;
+		}
+
+	}
+
+	@Benchmark
+	public float get(Table state) {
+		int tw = state.nextTarget();
+		return state.table.get(tw, state.source());
+	}
+
+	@Benchmark
+	public int[] getAlignment(Table state) {
+		state.sent = state.sent + 1 == state.src.size() ? 0 : state.sent + 1;
+		return state.table.getAlignment(state.src.get(state.sent),
+				state.trg.get(state.sent));
+	}
+
+	@Benchmark
+	public void increas(MutableTable state) {
+		int tw = state.nextTarget();
+		state.table.increas(tw, state.source(), 1e-6f);
+	}
+
+	@Benchmark
+	public void normalize(MutableTable state) {
+		state.table.normalize();
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.util.concurrent.TimeUnit;
+
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The E-step of updateTranslationTable for one sentence pair: the expected
+ * counts of its word pairs collected into the accumulators of a shard.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdateBenchmark {
+
+	@Param({ "pairwise", "lse", "vector" })
+	String engine;
+
+	@Param({ "50000" })
+	int vocabulary;
+
+	Corpus src;
+	Corpus trg;
+	TranslationTable table;
+	TranslationTable counts;
+	HashIntFloatMap totals;
+	int sent = 0;
+
+	@Setup
+	public void setup() {
+		src = new Zipf(vocabulary, 1.0, 1).corpus(10000, 5, 40);
+		trg = new Zipf(vocabulary, 1.0, 2).corpus(10000, 5, 40);
+		table = Zipf.table(src, trg);
+		table.freeze();
+		counts = new TranslationTable();
+		totals = HashIntFloatMaps.newMutableMap();
+		InvitationModel.scoring = ScoringEngine.forName(engine);
+	}
+
+	@Benchmark
+	public void collectCounts() {
+		sent = sent + 1 == src.size() ? 0 : sent + 1;
+		InvitationModel.collectCounts(src.words(), src.start(sent),
+				src.end(sent), trg.words(), trg.start(sent), trg.end(sent),
+				table, InvitationModel.LOG_0_5, counts, totals);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+
+/**
+ * Synthetic corpora with Zipf distributed words, so that the benchmarks see
+ * the skewed word frequencies and translation table rows of real text.
+ * Word codes start at 2 like those of the vocabularies of InvitationModel.
+ */
+
+public class Zipf {
+
+	final double cdf[];
+	final Random random;
+
+	public Zipf(int vocabulary, double exponent, long seed) {
+		cdf = new double[vocabulary];
+		double sum = 0;
+		for (int rank = 0; rank < vocabulary; rank++) {
+			sum += 1 / Math.pow(rank + 1, exponent);
+			cdf[rank] = sum;
+		}
+		for (int rank = 0; rank < vocabulary; rank++) {
+			cdf[rank] /= sum;
+		}
+		random = new Random(seed);
+	}
+
+	public int next() {
+		return 2 + rank();
+	}
+
+	/**
+	 * Draws a frequency rank, 0 being the most frequent word.
+	 */
+	public int rank() {
+		int rank = Arrays.binarySearch(cdf, random.nextDouble());
+		if (rank < 0) {
+			rank = -rank - 1;
+		}
+		return Math.min(rank, cdf.length - 1);
+	}
+
+	/**
+	 * Sentences with a uniformly distributed number of words.
+	 */
+	public Corpus corpus(int sentences, int minLength, int maxLength) {
+		Corpus.Builder builder = new Corpus.Builder();
+		for (int sent = 0; sent < sentences; sent++) {
+			builder.addSentence();
+			int length = minLength + random.nextInt(maxLength - minLength + 1);
+			for (int i = 0; i < length; i++) {
+				builder.addWord(next());
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Writes the corpus as a text file with the words w2, w3, ...
+	 */
+	public static void writeText(Corpus corpus, String fileName)
+			throws IOException {
+		OutputWriter out = OutputWriter.create(fileName);
+		try {
+			int words[] = corpus.words();
+			for (int sent = 0; sent < corpus.size(); sent++) {
+				for (int i = corpus.start(sent) + 1; i < corpus.end(sent); i++) {
+					if (i > corpus.start(sent) + 1) {
+						out.print(' ');
+					}
+					out.print('w');
+					out.print(words[i]);
+				}
+				out.println();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Log-probabilities t(tw|sw) estimated from the co-occurrences of the
+	 * words of the parallel corpora, the table the EM starts from.
+	 */
+	public static TranslationTable table(Corpus src, Corpus trg) {
+		TranslationTable table = new TranslationTable();
+		int swords[] = src.words();
+		int twords[] = trg.words();
+		for (int sent = 0; sent < src.size(); sent++) {
+			for (int t = trg.start(sent) + 1; t < trg.end(sent); t++) {
+				for (int s = src.start(sent); s < src.end(sent); s++) {
+					table.increas(twords[t], swords[s], 1f);
+				}
+			}
+		}
+		table.normalize();
+		for (HashIntFloatMap tMap : table.ttable.values()) {
+			for (int sw : tMap.keySet()) {
+				tMap.put(sw, (float) Math.log(tMap.get(sw)));
+			}
+		}
+		return table;
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Log-sum-exp reduction in SIMD lanes using the incubating JDK Vector API.
+ * Compiled only on JDK 17+ (see the vector profile in pom.xml) and loaded by
+ * {@link ScoringEngine#forName(String)}; running it requires
+ * --add-modules jdk.incubator.vector, otherwise the scalar engine is used.
+ */
+
+public class VectorScoringEngine extends ScoringEngine {
+
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+	@Override
+	public float logSumExp(float row[], int length) {
+		int bound = SPECIES.loopBound(length);
+
+		FloatVector vmax = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+		int i = 0;
+		for (; i < bound; i += SPECIES.length()) {
+			vmax = vmax.max(FloatVector.fromArray(SPECIES, row, i));
+		}
+		float max = vmax.reduceLanes(VectorOperators.MAX);
+		for (; i < length; i++) {
+			max = Math.max(max, row[i]);
+		}
+		if (max == Float.NEGATIVE_INFINITY) {
+			return max;
+		}
+
+		FloatVector vsum = FloatVector.zero(SPECIES);
+		for (i = 0; i < bound; i += SPECIES.length()) {
+			vsum = vsum.add(FloatVector.fromArray(SPECIES, row, i).sub(max)
+					.lanewise(VectorOperators.EXP));
+		}
+		double sum = vsum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			sum += Math.exp(row[i] - max);
+		}
+		return max + (float) Math.log(sum);
+	}
+
+	@Override
+	public String toString() {
+		return "vector(" + SPECIES.length() + " lanes)";
+	}
+
+}
@@ -19,12 +19,14 @@
 
 package nl.uva.illc;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import nl.uva.illc.dataselection.Corpus;
 import nl.uva.illc.dataselection.TranslationTable;
 
 
@@ -33,13 +35,28 @@ public class AlignmentCalculator {
 	public static CountDownLatch latch = null;
 	public static ExecutorService jobs = Executors.newCachedThreadPool();	
 
-	public static void process(int src[][], int trg[][], TranslationTable t2s, TranslationTable s2t) throws InterruptedException {		
-		int split = (int)Math.ceil(src.length / 100000d);
+	/**
+	 * Usage: AlignmentCalculator src.bin trg.bin t2s.bin s2t.bin
+	 * 
+	 * The corpora and tables are binary files written by InvitationModel, e.g.
+	 * indomain.en.bin and ttable.0.bin and ttable.1.bin for the in-domain
+	 * tables, and are memory-mapped instead of being re-read or retrained.
+	 */
+	public static void main(String args[]) throws IOException, InterruptedException {
+		Corpus src = Corpus.open(args[0]);
+		Corpus trg = Corpus.open(args[1]);
+		TranslationTable t2s = TranslationTable.load(args[2]);
+		TranslationTable s2t = TranslationTable.load(args[3]);
+		process(src, trg, t2s, s2t);
+	}
+
+	public static void process(Corpus src, Corpus trg, TranslationTable t2s, TranslationTable s2t) throws InterruptedException {		
+		int split = (int)Math.ceil(src.size() / 100000d);
 		latch = new CountDownLatch(split);
-		for(int start=0;start<src.length;start+=100000) {								
+		for(int start=0;start<src.size();start+=100000) {								
 			int end = start+100000;
-			if(end > src.length) {
-				end = src.length;
+			if(end > src.size()) {
+				end = src.size();
 			}
 			calculateAlignment(src, trg, t2s, s2t, start, end);
 		}
@@ -47,21 +64,21 @@ public class AlignmentCalculator {
 		jobs.shutdown();
 	}
 	
-	public static void calculateAlignment(final int src[][], final int trg[][], final TranslationTable t2s, final TranslationTable s2t, final int start, final int end) {
+	public static void calculateAlignment(final Corpus src, final Corpus trg, final TranslationTable t2s, final TranslationTable s2t, final int start, final int end) {
 
 		jobs.execute(new Runnable() {
 			
 			@Override
 			public void run() {
 				for(int sent=start;sent<end;sent++) {
-					int ssent[] = src[sent];
-					int tsent[] = trg[sent];
+					int ssent[] = src.get(sent);
+					int tsent[] = trg.get(sent);
 					int a1[] = t2s.getAlignment(ssent, tsent);
 					int a2[] = s2t.getAlignment(tsent, ssent);
 					List<Alignment> alignments = intersection(a1, a2);
 					System.out.println(alignments);
 				}		
-				
+				AlignmentCalculator.latch.countDown();
 			}
 		});
 		
@@ -70,7 +87,7 @@ public class AlignmentCalculator {
 	public static List<Alignment> intersection(int a1[], int a2[]) {
 		List<Alignment> alignments = new ArrayList<Alignment>();
 		for(int i=1;i<a1.length;i++) {			
-			if(a2[a1[i]]==i) {
+			if(a1[i]>=0 && a2[a1[i]]==i) {
 				alignments.add(new Alignment(a1[i], i));
 			}
 		}
@@ -93,5 +110,10 @@ class Alignment {
 		this.source = source;
 		this.target = target;
 	}
+
+	@Override
+	public String toString() {
+		return source + "-" + target;
+	}
 	
 }
\ No newline at end of file
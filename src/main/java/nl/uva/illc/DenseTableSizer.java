@@ -0,0 +1,151 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.openhft.koloboke.collect.map.IntFloatCursor;
+import net.openhft.koloboke.collect.map.IntObjCursor;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import nl.uva.illc.dataselection.Corpus;
+import nl.uva.illc.dataselection.HybridTranslationTable;
+import nl.uva.illc.dataselection.TranslationTable;
+
+/**
+ * Chooses the size k of the dense block of {@link HybridTranslationTable}
+ * (option -dw of InvitationModel) for a memory budget. The block of k holds
+ * the target and source words below k, the most frequent ones, and the
+ * lookups are counted on the corpus the way the scoring does them: every
+ * target word but the NULL word against every source word of the sentence
+ * pair.
+ * 
+ * For every candidate k it prints the memory of the dense blocks of the four
+ * tables, the fraction of the lookups that fall into the block and the
+ * fraction of the block that holds entries, counted on a translation table
+ * snapshot. The suggested k is the smallest one that comes within a percent
+ * of the coverage of the largest k that fits the budget and an array.
+ */
+
+public class DenseTableSizer {
+
+	static final int TABLES = 4;
+
+	/**
+	 * Usage: DenseTableSizer trg.bin src.bin ttable.bin budgetMB
+	 * 
+	 * The corpora are the encoded mix-domain corpora and the table a snapshot
+	 * of a target|source table, e.g. mixdomain.l2.bin mixdomain.l1.bin
+	 * ttable.2.bin.
+	 */
+	public static void main(String args[]) throws IOException {
+		if (args.length < 4) {
+			System.out.println("Usage: java " + DenseTableSizer.class.getName()
+					+ " trg.bin src.bin ttable.bin budgetMB");
+			System.exit(1);
+		}
+		Corpus trg = Corpus.open(args[0]);
+		Corpus src = Corpus.open(args[1]);
+		HashIntObjMap<HashIntFloatMap> ttable = TranslationTable.load(args[2])
+				.freeze().toMap();
+		long budget = (long) (Double.parseDouble(args[3]) * (1 << 20));
+
+		int maxTw = -1;
+		int maxSw = -1;
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			maxTw = Math.max(maxTw, c.key());
+			for (IntFloatCursor e = c.value().cursor(); e.moveNext();) {
+				maxSw = Math.max(maxSw, e.key());
+			}
+		}
+		int kMax = (int) Math.min(Math.sqrt(budget / (4.0 * TABLES)),
+				HybridTranslationTable.MAX_WORDS);
+		kMax = Math.min(kMax, Math.max(maxTw, maxSw) + 1);
+
+		List<Integer> candidates = new ArrayList<Integer>();
+		for (int k = 16; k < kMax; k *= 2) {
+			candidates.add(k);
+		}
+		candidates.add(kMax);
+
+		// an entry or a lookup is in the block of k if the larger of its two
+		// words is below k
+		long entries[] = new long[kMax + 1];
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			for (IntFloatCursor e = c.value().cursor(); e.moveNext();) {
+				int word = Math.max(c.key(), e.key());
+				if (word < kMax) {
+					entries[word + 1]++;
+				}
+			}
+		}
+
+		long lookups = 0;
+		long covered[] = new long[candidates.size()];
+		int trgWords[] = trg.words();
+		int srcWords[] = src.words();
+		for (int sent = 0; sent < trg.size(); sent++) {
+			lookups += (long) (trg.length(sent) - 1) * src.length(sent);
+			for (int i = 0; i < covered.length; i++) {
+				int k = candidates.get(i);
+				long rows = 0;
+				for (int t = trg.start(sent) + 1; t < trg.end(sent); t++) {
+					if (inBlock(trgWords[t], k)) {
+						rows++;
+					}
+				}
+				long cols = 0;
+				for (int s = src.start(sent); s < src.end(sent); s++) {
+					if (inBlock(srcWords[s], k)) {
+						cols++;
+					}
+				}
+				covered[i] += rows * cols;
+			}
+		}
+
+		System.out.println("k\tMB\tlookups\tfill");
+		long filled = 0;
+		int next = 1;
+		int suggested = kMax;
+		double best = lookups > 0 ? (double) covered[covered.length - 1]
+				/ lookups : 0;
+		for (int i = 0; i < covered.length; i++) {
+			int k = candidates.get(i);
+			while (next <= k) {
+				filled += entries[next++];
+			}
+			double coverage = lookups > 0 ? (double) covered[i] / lookups : 0;
+			System.out.printf("%d\t%.1f\t%.4f\t%.4f%n", k, 4.0 * TABLES * k
+					* k / (1 << 20), coverage, (double) filled
+					/ Math.min(k, maxTw + 1) / Math.min(k, maxSw + 1));
+			if (suggested == kMax && coverage >= best - 0.01) {
+				suggested = k;
+			}
+		}
+		System.out.println("Suggested: -dw " + suggested);
+	}
+
+	static boolean inBlock(int word, int k) {
+		return word >= 0 && word < k;
+	}
+
+}
@@ -0,0 +1,183 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Compares two rankings written by InvitationModel, e.g. the output of a run
+ * with quantized or pruned translation tables against the output of an
+ * exact run. For every cut-off k it prints the fraction of the k best
+ * sentences of the reference that are also among the k best of the other
+ * ranking, and finally the Spearman rank correlation of the sentences that
+ * are in both.
+ */
+
+public class RankingComparator {
+
+	static final int RANKING_MAGIC = 0x49524e4b; // "IRNK"
+
+	/**
+	 * Usage: RankingComparator reference.txt other.txt [k ...]
+	 * 
+	 * The rankings are text (output_<i>.txt) or binary (output_<i>.bin). The
+	 * default cut-offs are 1%, 5%, 10%, 25% and 50% of the reference.
+	 */
+	public static void main(String args[]) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: java " + RankingComparator.class.getName()
+					+ " reference other [k ...]");
+			System.exit(1);
+		}
+		int reference[] = read(args[0]);
+		int other[] = read(args[1]);
+
+		int cutoffs[];
+		if (args.length > 2) {
+			cutoffs = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++) {
+				cutoffs[i - 2] = Integer.parseInt(args[i]);
+			}
+		} else {
+			double fractions[] = { 0.01, 0.05, 0.1, 0.25, 0.5 };
+			cutoffs = new int[fractions.length];
+			for (int i = 0; i < fractions.length; i++) {
+				cutoffs[i] = Math.max(1,
+						(int) Math.round(fractions[i] * reference.length));
+			}
+		}
+
+		for (int k : cutoffs) {
+			System.out.printf("top %d\toverlap %.4f%n", k,
+					overlap(reference, other, k));
+		}
+		System.out.printf("spearman %.6f%n", spearman(reference, other));
+	}
+
+	/**
+	 * Returns the sentence numbers (0-based) in the order of the ranking.
+	 */
+	public static int[] read(String fileName) throws IOException {
+		if (fileName.endsWith(".bin")) {
+			RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+						0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+				if (buffer.getInt() != RANKING_MAGIC) {
+					throw new IOException(fileName + " is not a ranking");
+				}
+				buffer.getInt(); // version
+				int sentences[] = new int[buffer.getInt()];
+				for (int rank = 0; rank < sentences.length; rank++) {
+					sentences[rank] = buffer.getInt();
+					buffer.getFloat();
+					buffer.getFloat();
+				}
+				return sentences;
+			} finally {
+				file.close();
+			}
+		}
+
+		int sentences[] = new int[1024];
+		int size = 0;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(fileName), "UTF8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (size == sentences.length) {
+					sentences = Arrays.copyOf(sentences, size * 2);
+				}
+				int tab = line.indexOf('\t');
+				sentences[size++] = Integer.parseInt(tab < 0 ? line : line
+						.substring(0, tab)) - 1;
+			}
+		} finally {
+			reader.close();
+		}
+		return Arrays.copyOf(sentences, size);
+	}
+
+	public static double overlap(int reference[], int other[], int k) {
+		k = Math.min(k, Math.min(reference.length, other.length));
+		if (k == 0) {
+			return 0;
+		}
+		int top[] = Arrays.copyOf(other, k);
+		Arrays.sort(top);
+		int common = 0;
+		for (int rank = 0; rank < k; rank++) {
+			if (Arrays.binarySearch(top, reference[rank]) >= 0) {
+				common++;
+			}
+		}
+		return (double) common / k;
+	}
+
+	/**
+	 * Spearman correlation of the ranks of the sentences in both rankings;
+	 * the ranks are renumbered within the common sentences.
+	 */
+	public static double spearman(int reference[], int other[]) {
+		int max = 0;
+		for (int sent : reference) {
+			max = Math.max(max, sent);
+		}
+		for (int sent : other) {
+			max = Math.max(max, sent);
+		}
+		int otherRank[] = new int[max + 1];
+		Arrays.fill(otherRank, -1);
+		for (int rank = 0; rank < other.length; rank++) {
+			otherRank[other[rank]] = rank;
+		}
+
+		// the common sentences in the order of the reference, with their
+		// rank in the other ranking
+		int common[] = new int[reference.length];
+		int n = 0;
+		for (int sent : reference) {
+			if (otherRank[sent] >= 0) {
+				common[n++] = otherRank[sent];
+			}
+		}
+		if (n < 2) {
+			return Double.NaN;
+		}
+		int sorted[] = Arrays.copyOf(common, n);
+		Arrays.sort(sorted);
+		double d2 = 0;
+		for (int i = 0; i < n; i++) {
+			double d = i - Arrays.binarySearch(sorted, common[i]);
+			d2 += d * d;
+		}
+		return 1 - 6 * d2 / ((double) n * ((double) n * n - 1));
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Helpers for the little endian binary files (table snapshots, corpora)
+ * that are written through a file channel and read back with
+ * FileChannel.map.
+ */
+
+class BinaryFiles {
+
+	static final int BUFFER_SIZE = 1 << 20;
+
+	static ByteBuffer map(FileChannel channel, long position, long size)
+			throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Section of " + size
+					+ " bytes is too large to map");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, size)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Maps a header of the given number of ints and checks its magic and
+	 * version words.
+	 */
+	static IntBuffer header(FileChannel channel, String fileName, int magic,
+			int version, int size) throws IOException {
+		if (channel.size() < 4L * size) {
+			throw new IOException(fileName + " is truncated");
+		}
+		IntBuffer header = map(channel, 0, 4L * size).asIntBuffer();
+		if (header.get(0) != magic || header.get(1) != version) {
+			throw new IOException(fileName + " has an unknown format");
+		}
+		return header;
+	}
+
+	/**
+	 * Reads count ints at the given file position into values[from ..]
+	 * through the buffer, so sections of any size can be read; mappings are
+	 * limited to 2 GB.
+	 */
+	static void readInts(FileChannel channel, ByteBuffer buffer,
+			long position, int values[], int from, int count)
+			throws IOException {
+		while (count > 0) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity() & ~3, 4L * count));
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IOException("Unexpected end of file at "
+							+ (position + buffer.position()));
+				}
+			}
+			buffer.flip();
+			int n = buffer.remaining() / 4;
+			buffer.asIntBuffer().get(values, from, n);
+			position += 4L * n;
+			from += n;
+			count -= n;
+		}
+	}
+
+	static ByteBuffer allocate() {
+		return ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static void writeInts(FileChannel channel, ByteBuffer buffer, int... values)
+			throws IOException {
+		writeInts(channel, buffer, IntBuffer.wrap(values));
+	}
+
+	static void writeInts(FileChannel channel, ByteBuffer buffer,
+			IntBuffer values) throws IOException {
+		values = values.duplicate();
+		while (values.hasRemaining()) {
+			buffer.clear();
+			IntBuffer view = buffer.asIntBuffer();
+			int n = Math.min(view.remaining(), values.remaining());
+			IntBuffer chunk = values.duplicate();
+			chunk.limit(chunk.position() + n);
+			view.put(chunk);
+			values.position(values.position() + n);
+			buffer.limit(4 * n);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	static void writeFloats(FileChannel channel, ByteBuffer buffer,
+			FloatBuffer values) throws IOException {
+		values = values.duplicate();
+		while (values.hasRemaining()) {
+			buffer.clear();
+			FloatBuffer view = buffer.asFloatBuffer();
+			int n = Math.min(view.remaining(), values.remaining());
+			FloatBuffer chunk = values.duplicate();
+			chunk.limit(chunk.position() + n);
+			view.put(chunk);
+			values.position(values.position() + n);
+			buffer.limit(4 * n);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	static void writeLongs(FileChannel channel, ByteBuffer buffer,
+			LongBuffer values) throws IOException {
+		values = values.duplicate();
+		while (values.hasRemaining()) {
+			buffer.clear();
+			LongBuffer view = buffer.asLongBuffer();
+			int n = Math.min(view.remaining(), values.remaining());
+			LongBuffer chunk = values.duplicate();
+			chunk.limit(chunk.position() + n);
+			view.put(chunk);
+			values.position(values.position() + n);
+			buffer.limit(8 * n);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	static RandomAccessFile create(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName + ".tmp", "rw");
+		file.setLength(0);
+		return file;
+	}
+
+	/**
+	 * Renames a file written with {@link #create(String)} and closed into
+	 * place, so readers never observe a partially written file.
+	 */
+	static void commit(String fileName) throws IOException {
+		Files.move(new File(fileName + ".tmp").toPath(),
+				new File(fileName).toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -0,0 +1,158 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * EM state of InvitationModel after a training iteration: the iteration,
+ * PD1 and PD0, the LM scores of the mix-domain sentences, the ignored
+ * sentences, the four translation tables and the fingerprints of the source
+ * and target vocabularies their words refer to. The sentence posteriors are
+ * not part of it, they are recomputed from the tables by the next
+ * iteration.
+ * 
+ * The tables are written to prefix.[iteration].ttable.[0-3].bin and the
+ * rest to prefix.bin, which is renamed into place last so that it always
+ * refers to a complete set of tables. The tables of the previous iteration
+ * are removed afterwards. The layout of prefix.bin, little endian:
+ * 
+ * <pre>
+ * int magic, int version, int iteration, int size
+ * float pd1, float pd0, int lms, int mask
+ * long vocabularies[2]
+ * float lm[lms][size]
+ * long ignore[mask]
+ * </pre>
+ * 
+ * Checkpoints of earlier versions do not record their vocabularies and are
+ * not read.
+ */
+
+public class Checkpoint {
+
+	static final int MAGIC = 0x49434b50; // "ICKP"
+	static final int VERSION = 3;
+	static final int HEADER_SIZE = 48;
+
+	final int iteration;
+	final float pd1;
+	final float pd0;
+	final float lm[][];
+	final long ignore[];
+	final TranslationTable tables[];
+	final long vocabularies[];
+
+	public Checkpoint(int iteration, float pd1, float pd0, float lm[][],
+			long ignore[], TranslationTable tables[], long vocabularies[]) {
+		this.iteration = iteration;
+		this.pd1 = pd1;
+		this.pd0 = pd0;
+		this.lm = lm;
+		this.ignore = ignore;
+		this.tables = tables;
+		this.vocabularies = vocabularies;
+	}
+
+	public static boolean exists(String prefix) {
+		return new File(prefix + ".bin").exists();
+	}
+
+	static String tableFileName(String prefix, int iteration, int table) {
+		return prefix + "." + iteration + ".ttable." + table + ".bin";
+	}
+
+	/**
+	 * Opens the checkpoint; the tables are served from the memory-mapped
+	 * files.
+	 */
+	public static Checkpoint read(String prefix) throws IOException {
+		String fileName = prefix + ".bin";
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			IntBuffer header = BinaryFiles.header(channel, fileName, MAGIC,
+					VERSION, HEADER_SIZE / 4);
+			int iteration = header.get(2);
+			int size = header.get(3);
+			float pd1 = Float.intBitsToFloat(header.get(4));
+			float pd0 = Float.intBitsToFloat(header.get(5));
+			float lm[][] = new float[header.get(6)][size];
+			long ignore[] = new long[header.get(7)];
+			long vocabularies[] = new long[2];
+			BinaryFiles.map(channel, 32, 8L * vocabularies.length)
+					.asLongBuffer().get(vocabularies);
+
+			long position = HEADER_SIZE;
+			for (int i = 0; i < lm.length; i++) {
+				BinaryFiles.map(channel, position, 4L * size).asFloatBuffer()
+						.get(lm[i]);
+				position += 4L * size;
+			}
+			BinaryFiles.map(channel, position, 8L * ignore.length)
+					.asLongBuffer().get(ignore);
+
+			TranslationTable tables[] = new TranslationTable[4];
+			for (int i = 0; i < tables.length; i++) {
+				tables[i] = TranslationTable.load(tableFileName(prefix,
+						iteration, i));
+			}
+			return new Checkpoint(iteration, pd1, pd0, lm, ignore, tables,
+					vocabularies);
+		} finally {
+			file.close();
+		}
+	}
+
+	public void write(String prefix) throws IOException {
+		for (int i = 0; i < tables.length; i++) {
+			tables[i].write(tableFileName(prefix, iteration, i));
+		}
+
+		String fileName = prefix + ".bin";
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BinaryFiles.allocate();
+			BinaryFiles.writeInts(channel, buffer, MAGIC, VERSION, iteration,
+					lm[0].length, Float.floatToRawIntBits(pd1),
+					Float.floatToRawIntBits(pd0), lm.length, ignore.length);
+			BinaryFiles.writeLongs(channel, buffer, LongBuffer.wrap(vocabularies));
+			for (int i = 0; i < lm.length; i++) {
+				BinaryFiles.writeFloats(channel, buffer, FloatBuffer.wrap(lm[i]));
+			}
+			BinaryFiles.writeLongs(channel, buffer, LongBuffer.wrap(ignore));
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+
+		for (int i = 0; i < tables.length; i++) {
+			new File(tableFileName(prefix, iteration - 1, i)).delete();
+		}
+	}
+
+}
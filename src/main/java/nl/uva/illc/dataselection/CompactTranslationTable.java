@@ -0,0 +1,147 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import net.openhft.koloboke.collect.map.IntFloatCursor;
+import net.openhft.koloboke.collect.map.IntObjCursor;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
+
+/**
+ * Read-only translation table in compressed sparse row (CSR) layout. The
+ * entries of target word tw are stored in sources[rows[tw] .. rows[tw+1]],
+ * sorted by source word, with the log-probabilities in the parallel probs
+ * array. A lookup is one array load for the row and a binary search inside
+ * it, and the whole table is three primitive arrays instead of one hash map
+ * per target word.
+ */
+
+public class CompactTranslationTable implements FrozenTranslationTable {
+
+	final int rows[];
+	final int sources[];
+	final float probs[];
+
+	CompactTranslationTable(int rows[], int sources[], float probs[]) {
+		this.rows = rows;
+		this.sources = sources;
+		this.probs = probs;
+	}
+
+	public static CompactTranslationTable build(
+			HashIntObjMap<HashIntFloatMap> ttable) {
+
+		int maxTw = -1;
+		long size = 0;
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			maxTw = Math.max(maxTw, c.key());
+			size += c.value().size();
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Translation table too large: "
+					+ size + " entries");
+		}
+
+		int rows[] = new int[maxTw + 2];
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			rows[c.key() + 1] = c.value().size();
+		}
+		for (int tw = 0; tw <= maxTw; tw++) {
+			rows[tw + 1] += rows[tw];
+		}
+
+		int sources[] = new int[(int) size];
+		float probs[] = new float[(int) size];
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			int from = rows[c.key()];
+			int to = from;
+			HashIntFloatMap tMap = c.value();
+			for (IntFloatCursor e = tMap.cursor(); e.moveNext();) {
+				sources[to++] = e.key();
+			}
+			Arrays.sort(sources, from, to);
+			for (int i = from; i < to; i++) {
+				probs[i] = tMap.get(sources[i]);
+			}
+		}
+
+		return new CompactTranslationTable(rows, sources, probs);
+	}
+
+	@Override
+	public float get(int tw, int sw) {
+		if (tw < 0 || tw >= rows.length - 1) {
+			return Float.NaN;
+		}
+		int i = Arrays.binarySearch(sources, rows[tw], rows[tw + 1], sw);
+		return i < 0 ? Float.NaN : probs[i];
+	}
+
+	@Override
+	public void gather(int tw, int words[], int from, int to, float d,
+			float out[]) {
+		if (tw < 0 || tw >= rows.length - 1) {
+			Arrays.fill(out, 0, to - from, d);
+			return;
+		}
+		int rowFrom = rows[tw];
+		int rowTo = rows[tw + 1];
+		for (int s = from; s < to; s++) {
+			int i = Arrays.binarySearch(sources, rowFrom, rowTo, words[s]);
+			out[s - from] = i < 0 ? d : probs[i];
+		}
+	}
+
+	@Override
+	public int size() {
+		return sources.length;
+	}
+
+	@Override
+	public HashIntObjMap<HashIntFloatMap> toMap() {
+		HashIntObjMap<HashIntFloatMap> ttable = HashIntObjMaps.newMutableMap();
+		for (int tw = 0; tw < rows.length - 1; tw++) {
+			int from = rows[tw];
+			int to = rows[tw + 1];
+			if (from == to) {
+				continue;
+			}
+			HashIntFloatMap tMap = HashIntFloatMaps.newMutableMap(to - from);
+			for (int i = from; i < to; i++) {
+				tMap.put(sources[i], probs[i]);
+			}
+			ttable.put(tw, tMap);
+		}
+		return ttable;
+	}
+
+	@Override
+	public void write(String fileName) throws IOException {
+		MappedTranslationTable.write(fileName, IntBuffer.wrap(rows),
+				IntBuffer.wrap(sources), FloatBuffer.wrap(probs));
+	}
+
+}
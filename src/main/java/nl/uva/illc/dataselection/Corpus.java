@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Integer encoded corpus stored flat: the words of all sentences back to
+ * back in one int array, and the start of every sentence in an offsets
+ * array. Sentence i is words[offsets[i] .. offsets[i+1]-1] and, like the
+ * rows of the former int[][] corpora, starts with the NULL word 0.
+ * 
+ * The binary file written by {@link #write(String)} holds the same arrays
+ * and is read straight into them instead of re-parsing text:
+ * 
+ * <pre>
+ * int magic, int version, int size, int length
+ * long vocabulary
+ * int offsets[size + 1]
+ * int words[length]
+ * </pre>
+ * 
+ * vocabulary is the {@link Vocabulary#fingerprint()} of the vocabulary the
+ * codes refer to, 0 if it is not known. Since the codes are numbered by
+ * frequency, see {@link Vocabulary#sortByFrequency}, the same text gets
+ * other codes next to another corpus, and encoded files are reused only
+ * with the vocabulary they were encoded with. Files of earlier versions
+ * are not read and get encoded again.
+ */
+
+public class Corpus {
+
+	static final int MAGIC = 0x49435250; // "ICRP"
+	static final int VERSION = 3;
+	static final int HEADER_SIZE = 24;
+
+	final int words[];
+	final int offsets[];
+
+	// fingerprint of the vocabulary of the codes, 0 if unknown
+	long vocabulary = 0;
+
+	public Corpus(int words[], int offsets[]) {
+		this.words = words;
+		this.offsets = offsets;
+	}
+
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	public int[] words() {
+		return words;
+	}
+
+	public int start(int sent) {
+		return offsets[sent];
+	}
+
+	public int end(int sent) {
+		return offsets[sent + 1];
+	}
+
+	public int length(int sent) {
+		return offsets[sent + 1] - offsets[sent];
+	}
+
+	/**
+	 * Returns a copy of the sentence including the leading NULL word.
+	 */
+	public int[] get(int sent) {
+		return Arrays.copyOfRange(words, offsets[sent], offsets[sent + 1]);
+	}
+
+	/**
+	 * Returns a new corpus made of the first count of the given sentences,
+	 * in that order.
+	 */
+	public Corpus select(int sentences[], int count) {
+		int length = 0;
+		for (int i = 0; i < count; i++) {
+			length += length(sentences[i]);
+		}
+		int selected[] = new int[length];
+		int selectedOffsets[] = new int[count + 1];
+		for (int i = 0; i < count; i++) {
+			int sent = sentences[i];
+			selectedOffsets[i + 1] = selectedOffsets[i] + length(sent);
+			System.arraycopy(words, offsets[sent], selected,
+					selectedOffsets[i], length(sent));
+		}
+		Corpus corpus = new Corpus(selected, selectedOffsets);
+		corpus.vocabulary = vocabulary;
+		return corpus;
+	}
+
+	/**
+	 * Replaces every word w below codes.length by codes[w].
+	 */
+	public void recode(int codes[]) {
+		for (int i = 0; i < offsets[size()]; i++) {
+			if (words[i] < codes.length) {
+				words[i] = codes[words[i]];
+			}
+		}
+	}
+
+	public static Corpus open(String fileName) throws IOException {
+		return open(fileName, 0, -1);
+	}
+
+	/**
+	 * Reads sentences from .. to-1 of a corpus written with
+	 * {@link #write(String)}, all sentences from from on if to is -1. Only
+	 * the bytes of these sentences are read.
+	 */
+	public static Corpus open(String fileName, int from, int to)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			IntBuffer header = BinaryFiles.header(channel, fileName, MAGIC,
+					VERSION, HEADER_SIZE / 4);
+			int size = header.get(2);
+			if (to < 0) {
+				to = size;
+			}
+			if (from < 0 || from > to || to > size) {
+				throw new IOException(fileName + " has no sentences " + from
+						+ " .. " + (to - 1));
+			}
+			ByteBuffer buffer = BinaryFiles.allocate();
+			int offsets[] = new int[to - from + 1];
+			BinaryFiles.readInts(channel, buffer, HEADER_SIZE + 4L * from,
+					offsets, 0, offsets.length);
+			int base = offsets[0];
+			int words[] = new int[offsets[offsets.length - 1] - base];
+			BinaryFiles.readInts(channel, buffer, HEADER_SIZE + 4L
+					* (size + 1) + 4L * base, words, 0, words.length);
+			if (base != 0) {
+				for (int i = 0; i < offsets.length; i++) {
+					offsets[i] -= base;
+				}
+			}
+			Corpus corpus = new Corpus(words, offsets);
+			corpus.vocabulary = header.get(4) & 0xffffffffL
+					| (long) header.get(5) << 32;
+			return corpus;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Fingerprint of the vocabulary of a corpus file of the current version,
+	 * which {@link #open(String)} reads; 0 if the file is missing, of another
+	 * version or of an unknown vocabulary.
+	 */
+	public static long vocabulary(String fileName) {
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(fileName, "r");
+		} catch (FileNotFoundException e) {
+			return 0;
+		}
+		try {
+			IntBuffer header = BinaryFiles.header(file.getChannel(),
+					fileName, MAGIC, VERSION, HEADER_SIZE / 4);
+			return header.get(4) & 0xffffffffL | (long) header.get(5) << 32;
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// read only
+			}
+		}
+	}
+
+	public void write(String fileName) throws IOException {
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BinaryFiles.allocate();
+			BinaryFiles.writeInts(channel, buffer, MAGIC, VERSION, size(),
+					words.length, (int) vocabulary, (int) (vocabulary >>> 32));
+			BinaryFiles.writeInts(channel, buffer, IntBuffer.wrap(offsets));
+			BinaryFiles.writeInts(channel, buffer, IntBuffer.wrap(words));
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+	}
+
+	/**
+	 * Writes the corpus as text, one sentence per line with the word codes
+	 * separated by spaces and the NULL word left out. The digits are
+	 * formatted directly into the output buffer.
+	 */
+	public void writeText(String fileName) throws IOException {
+		OutputWriter out = OutputWriter.create(fileName);
+		try {
+			for (int sent = 0; sent < size(); sent++) {
+				for (int i = offsets[sent] + 1; i < offsets[sent + 1]; i++) {
+					out.print(words[i]);
+					out.print(' ');
+				}
+				out.println();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Accumulates sentences into growing flat arrays.
+	 */
+	public static class Builder {
+
+		int words[] = new int[1024];
+		int offsets[] = new int[64];
+		int length = 0;
+		int size = 0;
+
+		/**
+		 * Starts a new sentence with the NULL word.
+		 */
+		public void addSentence() {
+			if (size + 1 == offsets.length) {
+				offsets = Arrays.copyOf(offsets, grow(offsets.length));
+			}
+			offsets[size++] = length;
+			addWord(0);
+		}
+
+		public void addWord(int word) {
+			if (length == words.length) {
+				words = Arrays.copyOf(words, grow(words.length));
+			}
+			words[length++] = word;
+		}
+
+		static int grow(int length) {
+			return (int) Math.min(2L * length, Integer.MAX_VALUE - 8);
+		}
+
+		public Corpus build() {
+			int builtOffsets[] = Arrays.copyOf(offsets, size + 1);
+			builtOffsets[size] = length;
+			return new Corpus(Arrays.copyOf(words, length), builtOffsets);
+		}
+	}
+
+}
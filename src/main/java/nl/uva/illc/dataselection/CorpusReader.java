@@ -0,0 +1,236 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reads a tokenized text corpus, one sentence per line, into a Corpus. The
+ * file is split into byte ranges that end at a newline and every range is
+ * memory-mapped and tokenized in parallel into a local vocabulary. The local
+ * vocabularies are then merged in file order, which hands out exactly the
+ * codes a sequential read would, and the ranges are recoded in parallel.
+ * 
+ * Lines end at \n, \r or \r\n and are split at runs of space, tab, vertical
+ * tab and form feed, the same way as BufferedReader.readLine and
+ * String.split("\\s+"): a line starting with whitespace has an empty first
+ * word, an empty line is a single empty word and a line of whitespace only
+ * has no words.
+ */
+
+public class CorpusReader {
+
+	static final long MIN_RANGE = 1 << 20;
+	static final long MAX_RANGE = 1 << 30;
+	static final int RANGES_PER_THREAD = 4;
+
+	public static Corpus read(String fileName, Vocabulary vocabulary,
+			ForkJoinPool pool) throws IOException, InterruptedException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long bounds[] = split(channel, pool.getParallelism()
+					* RANGES_PER_THREAD);
+			int n = bounds.length - 1;
+
+			final Range ranges[] = new Range[n];
+			CountDownLatch latch = new CountDownLatch(n);
+			for (int i = 0; i < n; i++) {
+				ranges[i] = new Range(BinaryFiles.map(channel, bounds[i],
+						bounds[i + 1] - bounds[i]));
+				pool.execute(tokenize(ranges[i], latch));
+			}
+			latch.await();
+
+			long length = 0;
+			long size = 0;
+			for (Range range : ranges) {
+				range.codes = vocabulary.addAll(range.vocabulary);
+				range.words = length;
+				range.sentences = size;
+				length += range.corpus.words.length;
+				size += range.corpus.size();
+			}
+			if (length > Integer.MAX_VALUE - 8) {
+				throw new IOException(fileName + " has too many words: "
+						+ length);
+			}
+
+			int words[] = new int[(int) length];
+			int offsets[] = new int[(int) size + 1];
+			offsets[(int) size] = (int) length;
+			latch = new CountDownLatch(n);
+			for (Range range : ranges) {
+				pool.execute(recode(range, words, offsets, latch));
+			}
+			latch.await();
+
+			return new Corpus(words, offsets);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Boundaries of at most count ranges of the file, each starting after a
+	 * newline.
+	 */
+	static long[] split(FileChannel channel, int count) throws IOException {
+		long size = channel.size();
+		int n = (int) Math.max(Math.min(count, size / MIN_RANGE),
+				(size + MAX_RANGE - 1) / MAX_RANGE);
+		n = Math.max(n, 1);
+		long bounds[] = new long[n + 1];
+		int last = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		for (int i = 1; i < n; i++) {
+			long bound = Math.max(size * i / n, bounds[last]);
+			bound = nextLine(channel, buffer, bound, size);
+			if (bound > bounds[last] && bound < size) {
+				bounds[++last] = bound;
+			}
+		}
+		bounds[++last] = size;
+		long trimmed[] = new long[last + 1];
+		System.arraycopy(bounds, 0, trimmed, 0, last + 1);
+		return trimmed;
+	}
+
+	/**
+	 * Position after the first newline at or after position, or size.
+	 */
+	private static long nextLine(FileChannel channel, ByteBuffer buffer,
+			long position, long size) throws IOException {
+		while (position < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	private static Runnable tokenize(final Range range,
+			final CountDownLatch latch) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				ByteBuffer buffer = range.buffer;
+				Vocabulary vocabulary = range.vocabulary;
+				Corpus.Builder corpus = new Corpus.Builder();
+				int end = buffer.limit();
+				int i = 0;
+				while (i < end) {
+					int lineEnd = i;
+					byte b;
+					while (lineEnd < end && (b = buffer.get(lineEnd)) != '\n'
+							&& b != '\r') {
+						lineEnd++;
+					}
+					corpus.addSentence();
+					if (lineEnd == i) {
+						corpus.addWord(vocabulary.add(buffer, i, i));
+					} else {
+						int from = i;
+						while (from < lineEnd && isSpace(buffer.get(from))) {
+							from++;
+						}
+						if (from > i && from < lineEnd) {
+							corpus.addWord(vocabulary.add(buffer, i, i));
+						}
+						while (from < lineEnd) {
+							while (from < lineEnd && isSpace(buffer.get(from))) {
+								from++;
+							}
+							int to = from;
+							while (to < lineEnd && !isSpace(buffer.get(to))) {
+								to++;
+							}
+							if (to > from) {
+								corpus.addWord(vocabulary.add(buffer, from, to));
+							}
+							from = to;
+						}
+					}
+					i = lineEnd + 1;
+					if (lineEnd < end && buffer.get(lineEnd) == '\r' && i < end
+							&& buffer.get(i) == '\n') {
+						i++;
+					}
+				}
+				range.corpus = corpus.build();
+				range.buffer = null;
+				latch.countDown();
+			}
+		};
+	}
+
+	private static Runnable recode(final Range range, final int words[],
+			final int offsets[], final CountDownLatch latch) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				int local[] = range.corpus.words;
+				int localOffsets[] = range.corpus.offsets;
+				int codes[] = range.codes;
+				int base = (int) range.words;
+				for (int i = 0; i < local.length; i++) {
+					words[base + i] = codes[local[i]];
+				}
+				int sentences = (int) range.sentences;
+				for (int sent = 0; sent < range.corpus.size(); sent++) {
+					offsets[sentences + sent] = base + localOffsets[sent];
+				}
+				range.corpus = null;
+				latch.countDown();
+			}
+		};
+	}
+
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+	}
+
+	static class Range {
+
+		ByteBuffer buffer;
+		final Vocabulary vocabulary = new Vocabulary(1);
+		Corpus corpus;
+		int codes[];
+		long words;
+		long sentences;
+
+		Range(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+
+}
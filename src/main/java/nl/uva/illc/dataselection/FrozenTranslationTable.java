@@ -0,0 +1,55 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.IOException;
+
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+
+/**
+ * Read-only view of a translation table. Implementations hold their entries
+ * in flat, immutable storage and are safe to share between threads once
+ * constructed.
+ */
+
+public interface FrozenTranslationTable {
+
+	/**
+	 * Returns the log-probability of (tw, sw), or NaN when there is no entry.
+	 */
+	float get(int tw, int sw);
+
+	/**
+	 * Looks up tw against the source words words[from .. to-1], writing the
+	 * log-probabilities to out[0 .. to-from-1] and d for the missing entries.
+	 */
+	void gather(int tw, int words[], int from, int to, float d, float out[]);
+
+	int size();
+
+	HashIntObjMap<HashIntFloatMap> toMap();
+
+	/**
+	 * Writes the table in the snapshot format read by
+	 * {@link MappedTranslationTable}.
+	 */
+	void write(String fileName) throws IOException;
+
+}
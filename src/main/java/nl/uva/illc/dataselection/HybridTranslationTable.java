@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.openhft.koloboke.collect.map.IntFloatCursor;
+import net.openhft.koloboke.collect.map.IntObjCursor;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
+
+/**
+ * Translation table with the entries of the most frequent words in a dense
+ * block. The vocabularies number the words by decreasing corpus frequency,
+ * so the entries of the target and source words below k are stored in
+ * dense[tw * width + sw], NaN where there is no entry. Since the word
+ * frequencies are Zipfian most lookups of the scoring fall into the block
+ * and are one array load; the other entries are kept in a sparse
+ * {@link CompactTranslationTable} (or its quantized variant). With words
+ * numbered otherwise the table is still correct, only the block covers
+ * fewer lookups.
+ * 
+ * DenseTableSizer measures how many lookups of a corpus the block covers.
+ */
+
+public class HybridTranslationTable implements FrozenTranslationTable {
+
+	// largest k whose k x k block fits into an array
+	public static final int MAX_WORDS = (int) Math.sqrt(Integer.MAX_VALUE - 8);
+
+	// the block holds the target words below rows and the source words
+	// below width
+	final int rows;
+	final int width;
+	final float dense[];
+	final int denseSize;
+
+	final FrozenTranslationTable sparse;
+
+	HybridTranslationTable(int rows, int width, float dense[],
+			int denseSize, FrozenTranslationTable sparse) {
+		this.rows = rows;
+		this.width = width;
+		this.dense = dense;
+		this.denseSize = denseSize;
+		this.sparse = sparse;
+	}
+
+	/**
+	 * Builds the table with the words below k in the dense block, which
+	 * shrinks to the largest words of the table.
+	 */
+	public static HybridTranslationTable build(
+			HashIntObjMap<HashIntFloatMap> ttable, int k) {
+		int maxTw = -1;
+		int maxSw = -1;
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			maxTw = Math.max(maxTw, c.key());
+			for (IntFloatCursor e = c.value().cursor(); e.moveNext();) {
+				maxSw = Math.max(maxSw, e.key());
+			}
+		}
+		int rows = Math.min(k, maxTw + 1);
+		int width = Math.min(k, maxSw + 1);
+		long size = (long) rows * width;
+		if (size > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("A dense block of " + k
+					+ " words has " + size + " entries, at most " + MAX_WORDS
+					+ " words fit into an array");
+		}
+
+		float dense[] = new float[(int) size];
+		Arrays.fill(dense, Float.NaN);
+		int denseSize = 0;
+		HashIntObjMap<HashIntFloatMap> rest = HashIntObjMaps.newMutableMap();
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			int tw = c.key();
+			HashIntFloatMap tMap = c.value();
+			HashIntFloatMap restMap = null;
+			for (IntFloatCursor e = tMap.cursor(); e.moveNext();) {
+				int sw = e.key();
+				if (tw >= 0 && tw < rows && sw >= 0 && sw < width) {
+					dense[tw * width + sw] = e.value();
+					denseSize++;
+				} else {
+					if (restMap == null) {
+						restMap = HashIntFloatMaps.newMutableMap();
+						rest.put(tw, restMap);
+					}
+					restMap.put(sw, e.value());
+				}
+			}
+		}
+		return new HybridTranslationTable(rows, width, dense, denseSize,
+				TranslationTable.compact(rest));
+	}
+
+	@Override
+	public float get(int tw, int sw) {
+		if (tw >= 0 && tw < rows && sw >= 0 && sw < width) {
+			return dense[tw * width + sw];
+		}
+		return sparse.get(tw, sw);
+	}
+
+	@Override
+	public void gather(int tw, int words[], int from, int to, float d,
+			float out[]) {
+		if (tw < 0 || tw >= rows) {
+			sparse.gather(tw, words, from, to, d, out);
+			return;
+		}
+		// the words outside the block are looked up in one pass over the
+		// sparse row, which leaves d at the words of the block
+		for (int s = from; s < to; s++) {
+			int sw = words[s];
+			if (sw < 0 || sw >= width) {
+				sparse.gather(tw, words, from, to, d, out);
+				break;
+			}
+		}
+		int base = tw * width;
+		for (int s = from; s < to; s++) {
+			int sw = words[s];
+			if (sw >= 0 && sw < width) {
+				float value = dense[base + sw];
+				out[s - from] = Float.isNaN(value) ? d : value;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return denseSize + sparse.size();
+	}
+
+	@Override
+	public HashIntObjMap<HashIntFloatMap> toMap() {
+		HashIntObjMap<HashIntFloatMap> ttable = sparse.toMap();
+		for (int tw = 0; tw < rows; tw++) {
+			HashIntFloatMap tMap = ttable.get(tw);
+			for (int sw = 0; sw < width; sw++) {
+				float value = dense[tw * width + sw];
+				if (Float.isNaN(value)) {
+					continue;
+				}
+				if (tMap == null) {
+					tMap = HashIntFloatMaps.newMutableMap();
+					ttable.put(tw, tMap);
+				}
+				tMap.put(sw, value);
+			}
+		}
+		return ttable;
+	}
+
+	@Override
+	public void write(String fileName) throws IOException {
+		CompactTranslationTable.build(toMap()).write(fileName);
+	}
+
+}
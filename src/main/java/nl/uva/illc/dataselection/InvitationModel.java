@@ -18,41 +18,25 @@
 
 package nl.uva.illc.dataselection;
 
-import edu.berkeley.nlp.lm.ConfigOptions;
-import edu.berkeley.nlp.lm.NgramLanguageModel;
-import edu.berkeley.nlp.lm.StringWordIndexer;
-import edu.berkeley.nlp.lm.io.ArpaLmReader;
-import edu.berkeley.nlp.lm.io.LmReaders;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+
+import edu.berkeley.nlp.lm.ContextEncodedNgramLanguageModel.LmContextInfo;
+
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.LineNumberReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+
+import net.openhft.koloboke.collect.map.IntFloatCursor;
+import net.openhft.koloboke.collect.map.IntObjCursor;
 import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
 import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
-import net.openhft.koloboke.collect.map.hash.HashIntIntMap;
-import net.openhft.koloboke.collect.map.hash.HashIntIntMaps;
-import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
-import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
-import net.openhft.koloboke.collect.map.hash.HashObjIntMap;
-import net.openhft.koloboke.collect.map.hash.HashObjIntMaps;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -90,15 +74,15 @@ public class InvitationModel {
 
 	static int iMAX = 10;
 
-	static int src_indomain[][] = null;
-	static int trg_indomain[][] = null;
-	static int src_mixdomain[][] = null;
-	static int trg_mixdomain[][] = null;
-	static int src_outdomain[][] = null;
-	static int trg_outdomain[][] = null;
+	static Corpus src_indomain = null;
+	static Corpus trg_indomain = null;
+	static Corpus src_mixdomain = null;
+	static Corpus trg_mixdomain = null;
+	static Corpus src_outdomain = null;
+	static Corpus trg_outdomain = null;
 
-	static HashObjIntMap<String> src_codes = null;
-	static HashObjIntMap<String> trg_codes = null;
+	static Vocabulary src_vocabulary = null;
+	static Vocabulary trg_vocabulary = null;
 
 	static float lm[][] = null;
 
@@ -112,6 +96,11 @@ public class InvitationModel {
 	// to continue to next iteration
 	static float CONV_THRESHOLD = 0.00001f;
 	
+	// use the interpolation table instead of Math.log/Math.exp in logAdd
+	static boolean LOG_ADD_TABLE = false;
+
+	// reduction used to sum a target word over the source sentence
+	static ScoringEngine scoring = new ScoringEngine.Pairwise();
 
 	static float PD1 = LOG_0_5;
 	static float PD0 = LOG_0_5;
@@ -121,7 +110,87 @@ public class InvitationModel {
 	public static CountDownLatch latch = null;
 	public static ExecutorService jobs = Executors.newCachedThreadPool();
 
-	public static HashIntIntMap ignore = HashIntIntMaps.newMutableMap();
+	// background writes that have to happen in order, e.g. table snapshots
+	public static ExecutorService writer = Executors.newSingleThreadExecutor();
+
+	// worker threads of the work-stealing pool and the M-step shards; the
+	// pool is created once the options are parsed
+	static int THREADS = Runtime.getRuntime().availableProcessors();
+	public static ForkJoinPool pool = null;
+
+	// cost prefix of scoring the mix-domain corpus, see SentenceLoop
+	static long mixCost[] = null;
+
+	public static SentenceMask ignore = new SentenceMask();
+
+	// EM state written after every iteration, see Checkpoint
+	static String CHECKPOINT = "checkpoint";
+	static boolean RESUME = false;
+
+	// how many of the best sentences the per-iteration rankings list;
+	// all of them unless one of the two is set
+	static int TOP_K = -1;
+	static float TOP_FRACTION = -1f;
+
+	// sum of the in-domain LM scores, the tiebreak of the rankings
+	static float lmScore[] = null;
+
+	// key buffers of the full rankings, only used on the writer thread
+	static Ranking ranking = null;
+
+	// two sets of sentence posteriors used in turn, so that an iteration
+	// can score while the ranking of the previous one is written
+	static float sPDs[][][] = new float[2][][];
+	static Future<?> rankings[] = new Future<?>[2];
+
+	// names of the table snapshots and the per-iteration rankings
+	static String TABLES = "ttable";
+	static String OUTPUT = "output";
+
+	// format of the rankings: text or binary
+	static String OUTPUT_FORMAT = "text";
+
+	// binary ranking: magic, version, count, then count records of
+	// sentence number (0-based), log posterior score and LM score
+	static final int RANKING_MAGIC = 0x49524e4b; // "IRNK"
+	static final int RANKING_VERSION = 1;
+
+	// per-phase time, throughput and memory, see Metrics; written to
+	// METRICS after every iteration
+	static Metrics metrics = new Metrics();
+	static String METRICS = "metrics.jsonl";
+
+	// pruning of the translation tables after the initialization and every
+	// M-step: the PRUNE_TOP most probable source words of a target word, the
+	// entries above PRUNE_FLOOR (log) and, at the initialization, the pairs
+	// that co-occur more than once
+	static int PRUNE_TOP = 0;
+	static float PRUNE_FLOOR = Float.NEGATIVE_INFINITY;
+	static boolean PRUNE_SINGLETONS = false;
+
+	// sharded training: the E-step and the count collection run in WORKERS
+	// worker processes that exchange files with the coordinator through
+	// SHARED_DIR; WORKER is the number of this process if it is a worker.
+	// The coordinator fails when a worker does not answer or beat for
+	// WORKER_TIMEOUT seconds
+	static int WORKERS = 0;
+	static int WORKER = -1;
+	static String SHARED_DIR = "shared";
+	static int WORKER_TIMEOUT = 300;
+	static SharedDirectory shared = null;
+	static int shardBounds[] = null;
+
+	// score the mix-domain corpus against the model of an earlier run
+	static boolean INCREMENTAL = false;
+	static String MODEL = "checkpoint";
+
+	// what happens to words of the new corpus that are not in the
+	// vocabulary of the model: map, add or skip
+	static String UNKNOWN = "map";
+
+	// code of all unknown words under the map policy; the vocabularies
+	// start at 2 and never hand it out
+	static final int UNKNOWN_WORD = 1;
 
 	public static float n = 0.5f;
 	public static float V = 500000f;
@@ -132,15 +201,51 @@ public class InvitationModel {
 			InterruptedException {
 		log.info("Start ...");
 		processCommandLineArguments(args);
-		readFiles();
-		initialize();
-		burnIN();
-		createLM();
-		training();
-
-		jobs.shutdown();
+		try {
+			metrics.register();
+		} catch (JMException e) {
+			log.warn("Metrics are not available through JMX", e);
+		}
+		if (WORKERS > 0 && WORKER < 0) {
+			// before anything else, so that no worker takes files of an
+			// earlier training for this one
+			shared = new SharedDirectory(SHARED_DIR);
+			shared.start(WORKERS);
+		}
+		try {
+			if (WORKER >= 0) {
+				worker();
+			} else if (INCREMENTAL) {
+				readNewFiles();
+			} else {
+				readFiles();
+			}
+			if (WORKER >= 0) {
+				// the coordinator writes the results
+			} else if (RESUME) {
+				training(resume() + 1);
+			} else if (INCREMENTAL) {
+				loadModel();
+				createLM();
+				training(1);
+			} else {
+				initialize();
+				burnIN();
+				createLM();
+				training();
+			}
+		} finally {
+			if (shared != null && WORKER < 0) {
+				// also when the training failed, so that the workers stop
+				shared.finish();
+			}
+			jobs.shutdown();
+			writer.shutdown();
+			pool.shutdown();
+		}
 
 		jobs.awaitTermination(10, TimeUnit.MINUTES);
+		writer.awaitTermination(10, TimeUnit.MINUTES);
 
 		log.info("END");
 	}
@@ -156,6 +261,25 @@ public class InvitationModel {
 		options.addOption("i", "max-iterations", true, "Maximum Iterations");
 		options.addOption("th", "threshold", true, "This threshold deicdes which sentences updates translation tables. Default is 0.5");
 		options.addOption("cf", "conv_threshold", true, "This threshold decide if the convergence is reached. Default is 0.00001");		
+		options.addOption("la", "log-add", true, "logAdd implementation: exact or table. Default is exact");
+		options.addOption("t", "threads", true, "Number of worker threads. Default is the number of cores");
+		options.addOption("sc", "scoring", true, "Row reduction in scoring and updates: pairwise, lse or vector. Default is pairwise");
+		options.addOption("r", "resume", false, "Resume the training from the last checkpoint");
+		options.addOption("inc", "incremental", false, "Score the mix-domain corpus against the model of an earlier run. -i sets the number of warm-started iterations, default is 1 (scoring only)");
+		options.addOption("k", "top-k", true, "Write only the k best sentences of every iteration. Default is all");
+		options.addOption("tf", "top-fraction", true, "Write only this fraction of the best sentences of every iteration. Default is 1");
+		options.addOption("md", "model", true, "Checkpoint of the trained model that -inc scores with. Default is checkpoint");
+		options.addOption("u", "unknown", true, "Words of the new mix-domain corpus that are not in the vocabulary: map (to one unknown word), add or skip (the sentence). Default is map");
+		options.addOption("of", "output-format", true, "Format of the rankings: text (output_<i>.txt) or binary (output_<i>.bin). Default is text");
+		options.addOption("pt", "prune-top", true, "Keep only the <arg> most probable source words of every target word in the translation tables. Default is all");
+		options.addOption("pf", "prune-floor", true, "Drop the translation table entries with a probability below <arg>. Default is 0 (none)");
+		options.addOption("ps", "prune-singletons", false, "Drop the word pairs that co-occur only once when initializing the translation tables");
+		options.addOption("q", "quantize", true, "Bits per log-probability of the trained translation tables: 32, 16 or 8. Default is 32");
+		options.addOption("dw", "dense-words", true, "Keep the translation table entries of the target and source words below <arg>, the most frequent ones, in a dense block of at most " + HybridTranslationTable.MAX_WORDS + " words. Default is 0 (none)");
+		options.addOption("ws", "workers", true, "Number of worker processes that score the mix-domain corpus in the EM iterations, see -w. Default is 0 (no workers)");
+		options.addOption("w", "worker", true, "Run as worker <arg> (0 .. workers-1) of a sharded training, with the options of the coordinator");
+		options.addOption("sd", "shared-dir", true, "Directory shared by the coordinator and the workers. Default is shared");
+		options.addOption("wt", "worker-timeout", true, "Seconds the coordinator waits for a worker that stopped responding. Default is 300");
 
 		CommandLineParser parser = new GnuParser();
 		try {
@@ -179,6 +303,142 @@ public class InvitationModel {
 					CONV_THRESHOLD = (float) Float.parseFloat(cmd.getOptionValue("cf"));
 				}
 				
+				if (cmd.hasOption("la")) {
+					String mode = cmd.getOptionValue("la");
+					if (mode.equals("table")) {
+						LOG_ADD_TABLE = true;
+						log.info("Using table logAdd");
+					} else if (!mode.equals("exact")) {
+						System.out.println("Unknown logAdd implementation: " + mode);
+						printHelp(options);
+					}
+				}
+				
+				if (cmd.hasOption("t")) {
+					THREADS = Integer.parseInt(cmd.getOptionValue("t"));
+					if (THREADS < 1) {
+						System.out.println("Number of threads must be at least 1: "
+								+ THREADS);
+						printHelp(options);
+					}
+				}
+				
+				if (cmd.hasOption("sc")) {
+					try {
+						scoring = ScoringEngine.forName(cmd.getOptionValue("sc"));
+						log.info("Using scoring engine " + scoring);
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+						printHelp(options);
+					}
+				}
+				
+				if (cmd.hasOption("k")) {
+					TOP_K = Integer.parseInt(cmd.getOptionValue("k"));
+				}
+				
+				if (cmd.hasOption("tf")) {
+					TOP_FRACTION = Float.parseFloat(cmd.getOptionValue("tf"));
+				}
+				
+				if (cmd.hasOption("inc")) {
+					INCREMENTAL = true;
+					if (!cmd.hasOption("i")) {
+						iMAX = 1;
+					}
+					// keep the files of the trained model
+					CHECKPOINT = MIX + "." + CHECKPOINT;
+					TABLES = MIX + "." + TABLES;
+					OUTPUT = MIX + "." + OUTPUT;
+					METRICS = MIX + "." + METRICS;
+				}
+				
+				if (cmd.hasOption("md")) {
+					MODEL = cmd.getOptionValue("md");
+				}
+				
+				if (cmd.hasOption("u")) {
+					UNKNOWN = cmd.getOptionValue("u");
+					if (!UNKNOWN.equals("map") && !UNKNOWN.equals("add")
+							&& !UNKNOWN.equals("skip")) {
+						System.out.println("Unknown word policy: " + UNKNOWN);
+						printHelp(options);
+					}
+				}
+				
+				if (cmd.hasOption("of")) {
+					OUTPUT_FORMAT = cmd.getOptionValue("of");
+					if (!OUTPUT_FORMAT.equals("text")
+							&& !OUTPUT_FORMAT.equals("binary")) {
+						System.out.println("Unknown output format: "
+								+ OUTPUT_FORMAT);
+						printHelp(options);
+					}
+				}
+				
+				if (cmd.hasOption("pt")) {
+					PRUNE_TOP = Integer.parseInt(cmd.getOptionValue("pt"));
+				}
+				
+				if (cmd.hasOption("pf")) {
+					PRUNE_FLOOR = (float) Math.log(Double.parseDouble(cmd
+							.getOptionValue("pf")));
+				}
+				
+				PRUNE_SINGLETONS = cmd.hasOption("ps");
+				
+				if (cmd.hasOption("q")) {
+					int bits = Integer.parseInt(cmd.getOptionValue("q"));
+					if (bits != 32 && bits != 16 && bits != 8) {
+						System.out.println("Unsupported quantization: " + bits
+								+ " bits");
+						printHelp(options);
+					}
+					TranslationTable.QUANTIZATION_BITS = bits;
+				}
+				
+				if (cmd.hasOption("dw")) {
+					TranslationTable.DENSE_WORDS = Integer.parseInt(cmd
+							.getOptionValue("dw"));
+					if (TranslationTable.DENSE_WORDS < 0
+							|| TranslationTable.DENSE_WORDS > HybridTranslationTable.MAX_WORDS) {
+						System.out.println("Dense words must be between 0 and "
+								+ HybridTranslationTable.MAX_WORDS + ": "
+								+ TranslationTable.DENSE_WORDS);
+						printHelp(options);
+					}
+				}
+				
+				if (cmd.hasOption("ws")) {
+					WORKERS = Integer.parseInt(cmd.getOptionValue("ws"));
+				}
+				
+				if (cmd.hasOption("w")) {
+					WORKER = Integer.parseInt(cmd.getOptionValue("w"));
+					if (WORKER >= WORKERS) {
+						System.out.println("Worker " + WORKER + " of "
+								+ WORKERS + " workers");
+						printHelp(options);
+					}
+				}
+				
+				if (cmd.hasOption("sd")) {
+					SHARED_DIR = cmd.getOptionValue("sd");
+				}
+				
+				if (cmd.hasOption("wt")) {
+					WORKER_TIMEOUT = Integer.parseInt(cmd.getOptionValue("wt"));
+				}
+				
+				if (cmd.hasOption("r")) {
+					if (Checkpoint.exists(CHECKPOINT)) {
+						RESUME = true;
+					} else {
+						log.info("No checkpoint found, starting from scratch");
+					}
+				}
+				
+				pool = new ForkJoinPool(THREADS);
 
 			} else {
 				System.out.println("Missing required argumetns!");
@@ -199,6 +459,8 @@ public class InvitationModel {
 
 		log.info("Initializing Translaiton Tables");
 
+		Metrics.Phase phase = metrics.start("initialize", 0);
+
 		for (int i = 0; i < ttable.length; i++) {
 			ttable[i] = new TranslationTable();
 		}
@@ -212,11 +474,13 @@ public class InvitationModel {
 
 		latch.await();
 
+		metrics.end(phase, src_indomain.size() + src_mixdomain.size(), 0);
+
 		log.info("DONE");
 	}
 
-	public static void initializeTranslationTable(final int src[][],
-			final int trg[][], final TranslationTable ttable) {
+	public static void initializeTranslationTable(final Corpus src,
+			final Corpus trg, final TranslationTable ttable) {
 
 		jobs.execute(new Runnable() {
 
@@ -225,23 +489,30 @@ public class InvitationModel {
 
 				HashIntFloatMap totals = HashIntFloatMaps.newMutableMap();
 
-				for (int sent = 0; sent < src.length; sent++) {
+				int swords[] = src.words();
+				int twords[] = trg.words();
+
+				for (int sent = 0; sent < src.size(); sent++) {
 
 					if (sent % 100000 == 0)
 						log.debug("Sentence " + sent);
 
-					int ssent[] = src[sent];
-					int tsent[] = trg[sent];
-					for (int t = 1; t < tsent.length; t++) {
-						int tw = tsent[t];
-						for (int s = 0; s < ssent.length; s++) {
-							int sw = ssent[s];
+					for (int t = trg.start(sent) + 1; t < trg.end(sent); t++) {
+						int tw = twords[t];
+						for (int s = src.start(sent); s < src.end(sent); s++) {
+							int sw = swords[s];
 							ttable.increas(tw, sw, 1f);
 							totals.addValue(sw, 1f, 0f);
 						}
 					}
 				}
 
+				// the totals keep the pairs that are evicted here, so the
+				// remaining probabilities do not change
+				if (PRUNE_SINGLETONS) {
+					ttable.prune(0, 1.5f);
+				}
+
 				// normalizing and smoothing
 				for (int tw : ttable.ttable.keySet()) {
 					HashIntFloatMap tMap = ttable.ttable.get(tw);
@@ -252,6 +523,9 @@ public class InvitationModel {
 					}
 				}
 
+				prune(ttable);
+				ttable.freeze();
+
 				log.info(".");
 
 				InvitationModel.latch.countDown();
@@ -264,18 +538,22 @@ public class InvitationModel {
 	public static void createLM() throws InterruptedException {
 
 		log.info("Creating Language Models ...");
+
+		Metrics.Phase phase = metrics.start("createLM", 0);
 		
 		lm = new float[4][];
 		
 		latch = new CountDownLatch(4);
 
-		createLM(IN + "." + SRC + ".encoded", lm, 0, src_mixdomain);
-		createLM(IN + "." + TRG + ".encoded", lm, 1, trg_mixdomain);
-		createLM("outdomain." + SRC + ".encoded", lm, 2, src_mixdomain);
-		createLM("outdomain." + TRG + ".encoded", lm, 3, trg_mixdomain);
+		createLM(src_indomain, lm, 0, src_mixdomain);
+		createLM(trg_indomain, lm, 1, trg_mixdomain);
+		createLM(src_outdomain, lm, 2, src_mixdomain);
+		createLM(trg_outdomain, lm, 3, trg_mixdomain);
 
 		latch.await();
 
+		metrics.end(phase, 4L * src_mixdomain.size(), 0);
+
 		log.info("DONE");
 
 	}
@@ -284,162 +562,159 @@ public class InvitationModel {
 
 		log.info("BurnIN started ... ");
 
-		HashIntObjMap<Result> results = null;
+		Metrics.Phase phase = metrics.start("burnIN", 0);
+
+		float sPD[][] = null;
 
 		for (int i = 1; i <= 1; i++) {
 
 			log.info("Iteration " + i);
 
-			results = HashIntObjMaps.newMutableMap();
-
-			float sPD[][] = new float[2][src_mixdomain.length];
+			sPD = new float[2][src_mixdomain.size()];
 
-			int split = (int) Math.ceil(src_mixdomain.length / 100000d);
-
-			latch = new CountDownLatch(split);
-			for (int sent = 0; sent < src_mixdomain.length; sent += 100000) {
-				int end = sent + 100000;
-				if (end > src_mixdomain.length) {
-					end = src_mixdomain.length;
-				}
-				calcualteBurnInScore(sent, end, sPD);
-			}
-			latch.await();
+			scoreMixDomain(sPD, true);
 
 			float countPD[] = new float[2];
 			countPD[0] = Float.NEGATIVE_INFINITY;
 			countPD[1] = Float.NEGATIVE_INFINITY;
+			int ignored = 0;
 
-			for (int sent = 0; sent < src_mixdomain.length; sent++) {
+			for (int sent = 0; sent < src_mixdomain.size(); sent++) {
 
-				if (ignore.containsKey(sent))
+				if (ignore.contains(sent))
 					continue;
 
 				if (Float.isNaN(sPD[0][sent]) || Float.isNaN(sPD[1][sent])) {
-					ignore.put(sent, sent);
-					log.info("Ignoring " + (sent + 1));
+					ignore.add(sent);
+					ignored++;
 					continue;
 				}
 
 				countPD[0] = logAdd(countPD[0], sPD[0][sent]);
 				countPD[1] = logAdd(countPD[1], sPD[1][sent]);
 
-				results.put(sent, new Result(sent, sPD[0][sent]));
+			}
 
+			if (ignored > 0) {
+				log.info("Ignoring " + ignored + " sentences without a score");
 			}
 
 		}
 
+		metrics.end(phase);
+
 		log.info("BurnIN DONE");
 
 		log.info("Writing outdomain corpus ... ");
 
-		ArrayList<Result> sortedResult = new ArrayList<Result>(results.values());
-		Collections.sort(sortedResult);
-
-		PrintWriter src_out = new PrintWriter("outdomain." + SRC + ".encoded");
-		PrintWriter trg_out = new PrintWriter("outdomain." + TRG + ".encoded");
-
-		PrintWriter out_score = new PrintWriter("outdomain.scores");
-
-		src_outdomain = new int[src_indomain.length][];
-		trg_outdomain = new int[trg_indomain.length][];
-
-		int j = 0;
-
-		for (Result r : sortedResult) {
+		int selected[] = Ranking.top(sPD[0], null, ignore,
+				src_mixdomain.size(), src_indomain.size());
 
-			int sentIndex = r.sentenceNumber - 1;
+		OutputWriter out_score = OutputWriter.create("outdomain.scores");
 
-			int ssent[] = src_mixdomain[sentIndex];
-			int tsent[] = trg_mixdomain[sentIndex];
-
-			out_score.println(r.sentenceNumber + "\t" + r.score);
-
-			src_outdomain[j] = ssent;
-			trg_outdomain[j] = tsent;
-
-			for (int w = 1; w < ssent.length; w++) {
-				src_out.print(ssent[w]);
-				src_out.print(" ");
-			}
-			src_out.println();
-			for (int w = 1; w < tsent.length; w++) {
-				trg_out.print(tsent[w]);
-				trg_out.print(" ");
-			}
-			trg_out.println();
-
-			j++;
-
-			if (j == src_indomain.length) {
-				break;
-			}
+		for (int sent : selected) {
+			out_score.print(sent + 1);
+			out_score.print('\t');
+			out_score.print(sPD[0][sent]);
+			out_score.println();
 		}
 
 		out_score.close();
 
-		src_out.close();
-		trg_out.close();
+		src_outdomain = src_mixdomain.select(selected, selected.length);
+		trg_outdomain = trg_mixdomain.select(selected, selected.length);
+
+		src_outdomain.writeText("outdomain." + SRC + ".encoded");
+		trg_outdomain.writeText("outdomain." + TRG + ".encoded");
+		src_outdomain.write("outdomain." + SRC + ".bin");
+		trg_outdomain.write("outdomain." + TRG + ".bin");
 
 		log.info("DONE");
 
 	}
 
-	public static void training() throws FileNotFoundException,
+	public static void training() throws IOException,
 			InterruptedException {
 
 		log.info("Starting Invitation EM ...");
 
+		Metrics.Phase phase = metrics.start("initializeOutdomain", 0);
+
 		latch = new CountDownLatch(2);
 		ttable[2] = new TranslationTable();
 		ttable[3] = new TranslationTable();
 		initializeTranslationTable(src_outdomain, trg_outdomain, ttable[2]);
 		initializeTranslationTable(trg_outdomain, src_outdomain, ttable[3]);
 		latch.await();
+		metrics.end(phase, src_outdomain.size(), 0);
+		writeTables();
+		writeCheckpoint(0);
 
-		for (int i = 1; i <= iMAX; i++) {
-			log.info("Iteration " + i);
-			HashIntObjMap<Result> results = HashIntObjMaps.newMutableMap();
+		training(1);
+	}
+
+	/**
+	 * Runs the EM iterations from first on, after the tables have been
+	 * initialized or restored from a checkpoint.
+	 */
+	public static void training(int first) throws IOException,
+			InterruptedException {
+
+		if (lmScore == null) {
+			lmScore = new float[src_mixdomain.size()];
+			for (int sent = 0; sent < lmScore.length; sent++) {
+				lmScore[sent] = lm[0][sent] + lm[1][sent];
+			}
+		}
+
+		writeMetrics(0);
 
-			float sPD[][] = new float[2][src_mixdomain.length];
+		if (WORKERS > 0) {
+			startWorkers();
+		}
 
-			int splits = 10;
-			int split_size = src_mixdomain.length / splits;
+		// counts of the workers, for the update of the same iteration
+		TranslationTable counts[] = new TranslationTable[ttable.length];
+		HashIntFloatMap totals[] = new HashIntFloatMap[ttable.length];
 
-			latch = new CountDownLatch(splits);
-			for (int s=0;s<splits;s++) {
-				int start = s*split_size;
-				int end   = start + split_size;
-				if (s==(splits-1)) {
-					end = src_mixdomain.length;
-				}
-				calcualteScore(start, end, sPD);
+		for (int i = first; i <= iMAX; i++) {
+			log.info("Iteration " + i);
+
+			float sPD[][] = posteriors(i % 2);
+
+			Metrics.Phase phase = metrics.start("score", i);
+			if (WORKERS > 0) {
+				counts = new TranslationTable[ttable.length];
+				totals = new HashIntFloatMap[ttable.length];
+				scoreShards(i, sPD, counts, totals);
+			} else {
+				scoreMixDomain(sPD, false);
 			}
-			latch.await();
+			metrics.end(phase);
 
 			float countPD[] = new float[2];
 			countPD[0] = Float.NEGATIVE_INFINITY;
 			countPD[1] = Float.NEGATIVE_INFINITY;
+			int ignored = 0;
 
-			for (int sent = 0; sent < src_mixdomain.length; sent++) {
+			for (int sent = 0; sent < src_mixdomain.size(); sent++) {
 
-				if (ignore.containsKey(sent))
+				if (ignore.contains(sent))
 					continue;
 
 				if (Float.isNaN(sPD[0][sent]) || Float.isNaN(sPD[1][sent])) {
-					ignore.put(sent, sent);
-					log.info("Ignoring " + (sent + 1));
+					ignore.add(sent);
+					ignored++;
 					continue;
 				}
 
 				countPD[0] = logAdd(countPD[0], sPD[0][sent]);
 				countPD[1] = logAdd(countPD[1], sPD[1][sent]);
 
-				float srcP = lm[0][sent];
-				float trgP = lm[1][sent];
-				results.put(sent, new Result(sent, sPD[1][sent], srcP + trgP));
+			}
 
+			if (ignored > 0) {
+				log.info("Ignoring " + ignored + " sentences without a score");
 			}
 
 			float newPD1 = countPD[1] - logAdd(countPD[0], countPD[1]);
@@ -447,10 +722,12 @@ public class InvitationModel {
 
 			log.info("PD1 ~ PD0 " + Math.exp(newPD1) + " ~ " + Math.exp(newPD0));
 			
-			writeResult(i, results);
+			rankings[i % 2] = writeResult(i, sPD[1],
+					new SentenceMask(ignore.toArray()));
 			
 			if(i>1 && Math.abs(Math.exp(newPD1) - Math.exp(PD1)) <= CONV_THRESHOLD) {
 				log.info("Convergence threshold reached.");
+				writeMetrics(i);
 				break;
 			}
 			
@@ -459,131 +736,453 @@ public class InvitationModel {
 
 			if (i < iMAX) {
 
-				latch = new CountDownLatch(4);
-				updateTranslationTable(src_mixdomain, trg_mixdomain, ttable[0], sPD[1]);
-				updateTranslationTable(trg_mixdomain, src_mixdomain, ttable[1], sPD[1]);
-				updateTranslationTable(src_mixdomain, trg_mixdomain, ttable[2], sPD[0]);
-				updateTranslationTable(trg_mixdomain, src_mixdomain, ttable[3], sPD[0]);
-				latch.await();
+				phase = metrics.start("update", i);
+				if (WORKERS > 0) {
+					maximize(counts, totals);
+				} else {
+					updateTranslationTables(sPD);
+				}
+				metrics.end(phase);
+				writeTables();
+				writeCheckpoint(i);
 			}
 
+			writeMetrics(i);
+
 		}
-	}
 
-	public static void calcualteScore(final int start, final int end,
-			final float sPD[][]) {
+		// the full rankings are sorted on the pool, which main shuts down
+		awaitRanking(0);
+		awaitRanking(1);
+	}
 
-		jobs.execute(new Runnable() {
+	/**
+	 * Hands the mix-domain corpora and their LM scores to the workers of a
+	 * sharded training and splits the corpus into one shard per worker of
+	 * about the same scoring cost.
+	 */
+	static void startWorkers() throws IOException {
+		log.info("Sharding the mix-domain corpus for " + WORKERS
+				+ " workers in " + SHARED_DIR);
+		shared.writeInputs(src_mixdomain, trg_mixdomain, lm);
+
+		if (mixCost == null) {
+			mixCost = SentenceLoop.costs(src_mixdomain, trg_mixdomain);
+		}
+		int size = src_mixdomain.size();
+		shardBounds = new int[WORKERS + 1];
+		int sent = 0;
+		for (int w = 1; w < WORKERS; w++) {
+			long cost = mixCost[size] * w / WORKERS;
+			while (sent < size && mixCost[sent] < cost) {
+				sent++;
+			}
+			shardBounds[w] = sent;
+		}
+		shardBounds[WORKERS] = size;
+	}
 
-			@Override
-			public void run() {
-				for (int sent = start; sent < end; sent++) {
+	/**
+	 * E-step of a sharded training: publishes the model of the iteration,
+	 * waits for the posteriors and counts of every worker and merges the
+	 * counts in the order of the workers.
+	 */
+	static void scoreShards(int iteration, float sPD[][],
+			TranslationTable counts[], HashIntFloatMap totals[])
+			throws IOException, InterruptedException {
+		for (int k = 0; k < ttable.length; k++) {
+			ttable[k].freeze();
+		}
+		shared.writeModel(iteration, PD1, PD0, CONF_THRESHOLD, shardBounds,
+				ignore.toArray(), ttable);
+		for (int w = 0; w < WORKERS; w++) {
+			int sentences = shared.readShard(iteration, w, sPD, counts,
+					totals, WORKER_TIMEOUT * 1000L);
+			metrics.count(sentences, 0);
+		}
+		shared.removeModel(iteration - 1);
+	}
 
-					if (ignore.containsKey(sent))
-						continue;
+	/**
+	 * Runs a worker of a sharded training: waits for the coordinator to
+	 * start the training, scores its shard of the mix-domain corpus with
+	 * every model the coordinator publishes and answers with the posteriors
+	 * and counts, until the training is over. When the coordinator starts a
+	 * new training instead, the worker joins that one.
+	 */
+	public static void worker() throws IOException, InterruptedException {
+		log.info("Worker " + WORKER + " of " + WORKERS + " on " + SHARED_DIR);
+		shared = new SharedDirectory(SHARED_DIR);
+		do {
+			shared.join();
+			shared.startHeartbeat(WORKER);
+			log.info("Joined training " + Integer.toHexString(shared.run));
+			work();
+		} while (!shared.isDone());
+		log.info("Training finished");
+	}
 
-					int ssent[] = src_mixdomain[sent];
-					int tsent[] = trg_mixdomain[sent];
+	private static void work() throws IOException, InterruptedException {
+		int start = -1;
+		int end = -1;
+		SharedDirectory.Model model;
+		int iteration = 0;
+		while ((model = shared.nextModel(iteration)) != null) {
+			iteration = model.iteration;
+			log.info("Iteration " + iteration);
+			Metrics.Phase phase = metrics.start("shard", iteration);
+
+			if (model.bounds[WORKER] != start || model.bounds[WORKER + 1] != end) {
+				start = model.bounds[WORKER];
+				end = model.bounds[WORKER + 1];
+				src_mixdomain = shared.readCorpus("src", start, end);
+				trg_mixdomain = shared.readCorpus("trg", start, end);
+				lm = shared.readLM(start, end);
+				mixCost = null;
+				log.info("Sentences " + (start + 1) + " .. " + end);
+			}
+			PD1 = model.pd1;
+			PD0 = model.pd0;
+			CONF_THRESHOLD = model.threshold;
+			for (int k = 0; k < ttable.length; k++) {
+				ttable[k] = model.tables[k];
+			}
+			ignore = model.ignore(start, end);
+
+			float sPD[][] = new float[2][end - start];
+			scoreMixDomain(sPD, false);
+			TranslationTable counts[] = new TranslationTable[ttable.length];
+			HashIntFloatMap totals[] = new HashIntFloatMap[ttable.length];
+			countMixDomain(sPD, counts, totals);
+			shared.writeShard(iteration, WORKER, start, end, sPD, counts,
+					totals);
+
+			metrics.end(phase);
+			metrics.write(METRICS + "." + WORKER, iteration, null);
+		}
+	}
 
-					float sProb[] = new float[4];
+	/**
+	 * Appends the metrics of the iteration to METRICS once its ranking is
+	 * written, together with the current table sizes.
+	 */
+	static void writeMetrics(final int iteration) {
+		final long entries[] = new long[ttable.length];
+		for (int k = 0; k < ttable.length; k++) {
+			entries[k] = ttable[k] != null ? ttable[k].size() : 0;
+		}
+		writer.execute(new Runnable() {
 
-					sProb[0] = calculateProb(ssent, tsent, ttable[0]);
-					sProb[1] = calculateProb(tsent, ssent, ttable[1]);
-					sProb[2] = calculateProb(ssent, tsent, ttable[2]);
-					sProb[3] = calculateProb(tsent, ssent, ttable[3]);
+			@Override
+			public void run() {
+				try {
+					metrics.write(METRICS, iteration, entries);
+				} catch (IOException e) {
+					log.error("Writing " + METRICS + " failed", e);
+				}
+			}
+		});
+	}
 
-					float in_score  = PD1 + logAdd(sProb[0] + lm[1][sent], sProb[1] + lm[0][sent]);
-					float mix_score = PD0 + logAdd(sProb[2] + lm[3][sent], sProb[3] + lm[2][sent]);
+	/**
+	 * Writes a snapshot of every translation table to ttable.[0-3].bin in the
+	 * background. The snapshots can be opened with
+	 * {@link TranslationTable#load(String)} without retraining.
+	 */
+	public static void writeTables() {
+		for (int i = 0; i < ttable.length; i++) {
+			final FrozenTranslationTable table = ttable[i].freeze();
+			final String fileName = TABLES + "." + i + ".bin";
+			writer.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						table.write(fileName);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+	}
 
-					sPD[1][sent] = in_score  - logAdd(in_score, mix_score);
-					sPD[0][sent] = mix_score - logAdd(in_score, mix_score);
+	/**
+	 * Writes the EM state after the given iteration in the background. The
+	 * tables are frozen and the mask is copied, so the next iteration does
+	 * not wait for the write.
+	 */
+	public static void writeCheckpoint(int iteration) {
+		TranslationTable tables[] = new TranslationTable[ttable.length];
+		for (int i = 0; i < ttable.length; i++) {
+			ttable[i].freeze();
+			tables[i] = new TranslationTable(ttable[i]);
+		}
+		final Checkpoint checkpoint = new Checkpoint(iteration, PD1, PD0, lm,
+				ignore.toArray(), tables, new long[] {
+						src_indomain.vocabulary, trg_indomain.vocabulary });
+		writer.execute(new Runnable() {
 
+			@Override
+			public void run() {
+				try {
+					checkpoint.write(CHECKPOINT);
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
-				InvitationModel.latch.countDown();
 			}
 		});
+	}
 
+	/**
+	 * Restores the EM state of the last checkpoint and returns its
+	 * iteration.
+	 */
+	public static int resume() throws IOException {
+		Checkpoint checkpoint = Checkpoint.read(CHECKPOINT);
+		if (checkpoint.lm[0].length != src_mixdomain.size()) {
+			throw new IOException("The checkpoint does not match "
+					+ MIX + "." + SRC);
+		}
+		checkVocabularies(checkpoint, CHECKPOINT);
+		log.info("Resuming after iteration " + checkpoint.iteration);
+		PD1 = checkpoint.pd1;
+		PD0 = checkpoint.pd0;
+		lm = checkpoint.lm;
+		ignore = new SentenceMask(checkpoint.ignore);
+		for (int i = 0; i < ttable.length; i++) {
+			ttable[i] = checkpoint.tables[i];
+		}
+		return checkpoint.iteration;
 	}
 
-	public static void calcualteBurnInScore(final int start, final int end,
-			final float sPD[][]) {
+	/**
+	 * E-step over the whole mix-domain corpus on the work-stealing pool,
+	 * chunked by the number of word pairs each sentence pair costs.
+	 */
+	public static void scoreMixDomain(final float sPD[][], final boolean burnIn) {
+		if (mixCost == null) {
+			mixCost = SentenceLoop.costs(src_mixdomain, trg_mixdomain);
+		}
+		SentenceLoop.run(pool, mixCost, 0, src_mixdomain.size(),
+				new SentenceLoop.Body() {
+
+					@Override
+					public void run(int start, int end) {
+						if (burnIn) {
+							scoreBurnIn(start, end, sPD);
+						} else {
+							score(start, end, sPD);
+						}
+					}
+				});
+	}
 
-		jobs.execute(new Runnable() {
+	public static void score(int start, int end, float sPD[][]) {
+		int swords[] = src_mixdomain.words();
+		int twords[] = trg_mixdomain.words();
+		long sentences = 0;
+		long pairs = 0;
+		for (int sent = ignore.nextActive(start); sent < end; sent = ignore
+				.nextActive(sent + 1)) {
 
-			@Override
-			public void run() {
-				for (int sent = start; sent < end; sent++) {
+			int sFrom = src_mixdomain.start(sent);
+			int sTo = src_mixdomain.end(sent);
+			int tFrom = trg_mixdomain.start(sent);
+			int tTo = trg_mixdomain.end(sent);
+			sentences++;
+			pairs += 2 * Metrics.pairs(sTo - sFrom, tTo - tFrom);
 
-					if (ignore.containsKey(sent))
-						continue;
+			float sProb[] = new float[4];
 
-					int ssent[] = src_mixdomain[sent];
-					int tsent[] = trg_mixdomain[sent];
+			sProb[0] = calculateProb(swords, sFrom, sTo, twords, tFrom, tTo, ttable[0]);
+			sProb[1] = calculateProb(twords, tFrom, tTo, swords, sFrom, sTo, ttable[1]);
+			sProb[2] = calculateProb(swords, sFrom, sTo, twords, tFrom, tTo, ttable[2]);
+			sProb[3] = calculateProb(twords, tFrom, tTo, swords, sFrom, sTo, ttable[3]);
 
-					float sProb[] = new float[4];
+			float in_score  = PD1 + logAdd(sProb[0] + lm[1][sent], sProb[1] + lm[0][sent]);
+			float mix_score = PD0 + logAdd(sProb[2] + lm[3][sent], sProb[3] + lm[2][sent]);
 
-					sProb[0] = calculateProb(ssent, tsent, ttable[0]);
-					sProb[1] = calculateProb(tsent, ssent, ttable[1]);
-					sProb[2] = calculateProb(ssent, tsent, ttable[2]);
-					sProb[3] = calculateProb(tsent, ssent, ttable[3]);
+			sPD[1][sent] = in_score  - logAdd(in_score, mix_score);
+			sPD[0][sent] = mix_score - logAdd(in_score, mix_score);
 
-					float in_score  = PD1 + logAdd(sProb[0], sProb[1]);
-					float mix_score = PD0 + logAdd(sProb[2], sProb[3]);
+		}
+		metrics.count(sentences, pairs);
+	}
 
-					sPD[1][sent] = in_score  - logAdd(in_score, mix_score);
-					sPD[0][sent] = mix_score - logAdd(in_score, mix_score);
+	public static void scoreBurnIn(int start, int end, float sPD[][]) {
+		int swords[] = src_mixdomain.words();
+		int twords[] = trg_mixdomain.words();
+		long sentences = 0;
+		long pairs = 0;
+		for (int sent = ignore.nextActive(start); sent < end; sent = ignore
+				.nextActive(sent + 1)) {
 
-				}
-				InvitationModel.latch.countDown();
+			int sFrom = src_mixdomain.start(sent);
+			int sTo = src_mixdomain.end(sent);
+			int tFrom = trg_mixdomain.start(sent);
+			int tTo = trg_mixdomain.end(sent);
+			sentences++;
+			pairs += 2 * Metrics.pairs(sTo - sFrom, tTo - tFrom);
+
+			float sProb[] = new float[4];
+
+			sProb[0] = calculateProb(swords, sFrom, sTo, twords, tFrom, tTo, ttable[0]);
+			sProb[1] = calculateProb(twords, tFrom, tTo, swords, sFrom, sTo, ttable[1]);
+			sProb[2] = calculateProb(swords, sFrom, sTo, twords, tFrom, tTo, ttable[2]);
+			sProb[3] = calculateProb(twords, tFrom, tTo, swords, sFrom, sTo, ttable[3]);
+
+			float in_score  = PD1 + logAdd(sProb[0], sProb[1]);
+			float mix_score = PD0 + logAdd(sProb[2], sProb[3]);
+
+			sPD[1][sent] = in_score  - logAdd(in_score, mix_score);
+			sPD[0][sent] = mix_score - logAdd(in_score, mix_score);
+
+		}
+		metrics.count(sentences, pairs);
+	}
+
+	/**
+	 * Waits until the ranking that last read the given set of sentence
+	 * posteriors is written.
+	 */
+	static void awaitRanking(int set) throws InterruptedException {
+		if (rankings[set] != null) {
+			try {
+				rankings[set].get();
+			} catch (ExecutionException e) {
+				log.error("Writing a ranking failed", e.getCause());
 			}
-		});
+			rankings[set] = null;
+		}
+	}
 
+	/**
+	 * Returns the given set of sentence posteriors once the ranking that
+	 * last read it has been written.
+	 */
+	static float[][] posteriors(int set) throws InterruptedException {
+		awaitRanking(set);
+		if (sPDs[set] == null) {
+			sPDs[set] = new float[2][src_mixdomain.size()];
+		}
+		return sPDs[set];
 	}
 
-	public static void writeResult(final int iterationNumber,
-			final HashIntObjMap<Result> results) {
+	/**
+	 * Writes the ranking of an iteration in the background: the best
+	 * sentences by in-domain posterior score, with the LM score as
+	 * tiebreak. The score array and the mask must not change until the
+	 * returned future is done. A short ranking is selected with a heap, a
+	 * long one is sorted in parallel in the reused key buffers. The lines
+	 * are formatted on the writer thread, not on the worker pool.
+	 */
+	public static Future<?> writeResult(final int iterationNumber,
+			final float score[], final SentenceMask ignore) {
 
-		jobs.execute(new Runnable() {
+		return writer.submit(new Runnable() {
 
 			@Override
 			public void run() {
-				ArrayList<Result> sortedResult = new ArrayList<Result>(results
-						.values());
-				Collections.sort(sortedResult);
+				Metrics.Phase phase = metrics.start("ranking", iterationNumber);
+				int size = src_mixdomain.size();
+				int candidates = size - ignore.size();
+				int count = topCount(candidates);
+				int top[] = null;
+				if (count < candidates / 8) {
+					top = Ranking.top(score, lmScore, ignore, size, count);
+				} else {
+					if (ranking == null) {
+						ranking = new Ranking(pool);
+					}
+					ranking.sort(score, lmScore, ignore, size);
+				}
+				boolean binary = OUTPUT_FORMAT.equals("binary");
+				String fileName = OUTPUT + "_" + iterationNumber
+						+ (binary ? ".bin" : ".txt");
 				try {
-					PrintWriter output = new PrintWriter("output_"
-							+ iterationNumber + ".txt");
-					for (Result r : sortedResult) {
-						output.println(r.sentenceNumber + "\t"
-								+ Math.exp(r.score) + "\t"
-								+ Math.exp(r.lm_score));
+					OutputWriter output = binary ? new OutputWriter(
+							BinaryFiles.create(fileName).getChannel())
+							: OutputWriter.create(fileName);
+					try {
+						if (binary) {
+							output.putInt(RANKING_MAGIC);
+							output.putInt(RANKING_VERSION);
+							output.putInt(count);
+						}
+						for (int rank = 0; rank < count; rank++) {
+							int sent = top != null ? top[rank] : ranking
+									.sentence(rank);
+							if (binary) {
+								output.putInt(sent);
+								output.putFloat(score[sent]);
+								output.putFloat(lmScore[sent]);
+							} else {
+								output.print(sent + 1);
+								output.print('\t');
+								output.print(Math.exp(score[sent]));
+								output.print('\t');
+								output.print(Math.exp(lmScore[sent]));
+								output.println();
+							}
+						}
+					} finally {
+						output.close();
 					}
-					output.close();
-				} catch (FileNotFoundException e) {
-					e.printStackTrace();
+					if (binary) {
+						BinaryFiles.commit(fileName);
+					}
+				} catch (IOException e) {
+					log.error("Writing " + fileName + " failed", e);
 				}
+				metrics.end(phase, count, 0);
 			}
 		});
 
 	}
 
+	/**
+	 * Number of sentences the rankings list out of the given number of
+	 * candidates.
+	 */
+	static int topCount(int candidates) {
+		if (TOP_K >= 0) {
+			return Math.min(TOP_K, candidates);
+		}
+		if (TOP_FRACTION >= 0) {
+			return (int) Math.min(Math.ceil(TOP_FRACTION * candidates),
+					candidates);
+		}
+		return candidates;
+	}
+
+
 	public static float calculateProb(final int ssent[], final int tsent[],
 			final TranslationTable ttable) {
+		return calculateProb(ssent, 0, ssent.length, tsent, 0, tsent.length,
+				ttable);
+	}
+
+	/**
+	 * Log-probability of the target sentence trg[tFrom .. tTo-1] given the
+	 * source sentence src[sFrom .. sTo-1]; both start with the NULL word.
+	 */
+	public static float calculateProb(final int src[], final int sFrom,
+			final int sTo, final int trg[], final int tFrom, final int tTo,
+			final TranslationTable ttable) {
 		float prob = 0;
-		for (int t = 1; t < tsent.length; t++) {
-			int tw = tsent[t];
-			float sum = Float.NEGATIVE_INFINITY;
-			for (int s = 0; s < ssent.length; s++) {
-				int sw = ssent[s];
-				sum = logAdd(sum, ttable.get(tw, sw, p));
-			}
-			prob += sum;
+		int length = sTo - sFrom;
+		float row[] = new float[length];
+		for (int t = tFrom + 1; t < tTo; t++) {
+			int tw = trg[t];
+			ttable.gather(tw, src, sFrom, sTo, p, row);
+			prob += scoring.logSumExp(row, length);
 		}
-		return prob - (float)Math.log(Math.pow(ssent.length, tsent.length-1));
+		return prob - (float)Math.log(Math.pow(length, tTo - tFrom - 1));
 	}
 
-	public static void updateTranslationTable(final int src[][],
-			final int trg[][], final TranslationTable ttable, final float sPD[]) {
+	public static void updateTranslationTable(final Corpus src,
+			final Corpus trg, final TranslationTable ttable, final float sPD[]) {
 
 		jobs.execute(new Runnable() {
 
@@ -594,63 +1193,22 @@ public class InvitationModel {
 				TranslationTable counts = new TranslationTable();
 				HashIntFloatMap totals = HashIntFloatMaps.newMutableMap();
 
-				for (int sent = 0; sent < src.length; sent++) {
+				for (int sent = 0; sent < src.size(); sent++) {
 
 					if (sent % 100000 == 0)
 						log.debug("Sentence " + sent);
 
-					if (ignore.containsKey(sent))
+					if (ignore.contains(sent))
 						continue;
 					
 					if(sPD[sent] < CONF_THRESHOLD) continue;
 
-					int ssent[] = src[sent];
-					int tsent[] = trg[sent];
-
-					HashIntFloatMap s_total = HashIntFloatMaps.newMutableMap();
-
-					// calculating normalization
-					for (int t = 1; t < tsent.length; t++) {
-						int tw = tsent[t];
-						for (int s = 0; s < ssent.length; s++) {
-							int sw = ssent[s];
-							s_total.put(
-									tw,
-									logAdd(s_total.getOrDefault(tw,
-											Float.NEGATIVE_INFINITY), ttable
-											.get(tw, sw, p)));
-						}
-					}
-
-					// collect counts
-					for (int t = 1; t < tsent.length; t++) {
-						int tw = tsent[t];
-						for (int s = 0; s < ssent.length; s++) {
-							int sw = ssent[s];
-							float in_count = sPD[sent]
-									+ (ttable.get(tw, sw, p) - s_total.get(tw));
-							counts.put(
-									tw,
-									sw,
-									logAdd(counts.get(tw, sw,
-											Float.NEGATIVE_INFINITY), in_count));
-							totals.put(
-									sw,
-									logAdd(totals.getOrDefault(sw,
-											Float.NEGATIVE_INFINITY), in_count));
-						}
-					}
-					
+					collectCounts(src.words(), src.start(sent), src.end(sent),
+							trg.words(), trg.start(sent), trg.end(sent), ttable,
+							sPD[sent], counts, totals);
 				}
 
-				// maximization
-				for (int tw : counts.ttable.keySet()) {
-					HashIntFloatMap tMap = counts.ttable.get(tw);
-					for (int sw : tMap.keySet()) {
-						float newProb = counts.get(tw, sw) - totals.get(sw);
-						ttable.put(tw, sw, newProb);
-					}
-				}
+				maximize(ttable, counts, totals);
 				log.info("Updating translation table DONE");
 				InvitationModel.latch.countDown();
 			}
@@ -659,205 +1217,526 @@ public class InvitationModel {
 
 	}
 
-	public static void readFiles() throws IOException, InterruptedException {
+	/**
+	 * Data-parallel M-step for all four tables, see
+	 * {@link #countMixDomain(float[][], TranslationTable[], HashIntFloatMap[])}.
+	 */
+	public static void updateTranslationTables(final float sPD[][])
+			throws InterruptedException {
 
-		log.info("Reading files");
+		log.info("Updating translation tables ... ");
 
-		src_codes = HashObjIntMaps.newMutableMap();
-		trg_codes = HashObjIntMaps.newMutableMap();
-		src_codes.put(null, 0);
-		trg_codes.put(null, 0);
+		TranslationTable counts[] = new TranslationTable[ttable.length];
+		HashIntFloatMap totals[] = new HashIntFloatMap[ttable.length];
+		countMixDomain(sPD, counts, totals);
+		maximize(counts, totals);
 
-		LineNumberReader lr = new LineNumberReader(new FileReader(IN + "."
-				+ SRC));
-		lr.skip(Long.MAX_VALUE);
-		int indomain_size = lr.getLineNumber();
-		lr.close();
+		log.info("Updating translation tables DONE");
+	}
 
-		lr = new LineNumberReader(new FileReader(MIX + "." + SRC));
-		lr.skip(Long.MAX_VALUE);
-		int mixdomain_size = lr.getLineNumber();
-		lr.close();
+	/**
+	 * Collects the counts of the mix-domain corpus for all four tables into
+	 * counts and totals. The corpus is split into one shard per worker
+	 * thread; every shard collects counts for the four tables into its own
+	 * accumulators in a single pass over its sentences. The accumulators are
+	 * then merged pairwise in a parallel tree reduction.
+	 */
+	public static void countMixDomain(final float sPD[][],
+			TranslationTable tableCounts[], HashIntFloatMap tableTotals[])
+			throws InterruptedException {
+
+		int shards = Math.min(THREADS,
+				(int) Math.ceil(src_mixdomain.size() / 10000d));
+		shards = Math.max(shards, 1);
+		int shard_size = (int) Math.ceil((double) src_mixdomain.size() / shards);
+
+		final TranslationTable counts[][] = new TranslationTable[shards][ttable.length];
+		final HashIntFloatMap totals[][] = new HashIntFloatMap[shards][ttable.length];
+
+		latch = new CountDownLatch(shards);
+		for (int shard = 0; shard < shards; shard++) {
+			int start = Math.min(shard * shard_size, src_mixdomain.size());
+			int end = Math.min(start + shard_size, src_mixdomain.size());
+			collectCounts(start, end, sPD, counts[shard], totals[shard]);
+		}
+		latch.await();
 
-		src_indomain = new int[indomain_size][];
-		trg_indomain = new int[indomain_size][];
-		src_mixdomain = new int[mixdomain_size][];
-		trg_mixdomain = new int[mixdomain_size][];
+		for (int stride = 1; stride < shards; stride *= 2) {
+			int merges = 0;
+			for (int shard = 0; shard + stride < shards; shard += 2 * stride) {
+				merges++;
+			}
+			latch = new CountDownLatch(merges * ttable.length);
+			for (int shard = 0; shard + stride < shards; shard += 2 * stride) {
+				for (int k = 0; k < ttable.length; k++) {
+					mergeCounts(counts, totals, shard, shard + stride, k);
+				}
+			}
+			latch.await();
+		}
 
-		latch = new CountDownLatch(2);
-		readFile(IN + "." + SRC, src_codes, src_indomain);
-		readFile(IN + "." + TRG, trg_codes, trg_indomain);
-		latch.await();
+		for (int k = 0; k < ttable.length; k++) {
+			tableCounts[k] = counts[0][k];
+			tableTotals[k] = totals[0][k];
+		}
+	}
 
-		latch = new CountDownLatch(2);
-		readFile(MIX + "." + SRC, src_codes, src_mixdomain);
-		readFile(MIX + "." + TRG, trg_codes, trg_mixdomain);
+	/**
+	 * Maximizes the four tables from their counts in parallel.
+	 */
+	public static void maximize(TranslationTable counts[],
+			HashIntFloatMap totals[]) throws InterruptedException {
+		latch = new CountDownLatch(ttable.length);
+		for (int k = 0; k < ttable.length; k++) {
+			final TranslationTable table = ttable[k];
+			final TranslationTable tableCounts = counts[k];
+			final HashIntFloatMap tableTotals = totals[k];
+			jobs.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					maximize(table, tableCounts, tableTotals);
+					InvitationModel.latch.countDown();
+				}
+			});
+		}
 		latch.await();
-
 	}
 
-	public static void readFile(final String fileName,
-			final HashObjIntMap<String> codes, final int lines[][])
-			throws IOException {
+	/**
+	 * Collects the counts of sentences start .. end-1 for all four tables.
+	 * Tables 0 and 1 are weighted by the in-domain posterior sPD[1], tables 2
+	 * and 3 by the mix-domain posterior sPD[0].
+	 */
+	public static void collectCounts(final int start, final int end,
+			final float sPD[][], final TranslationTable counts[],
+			final HashIntFloatMap totals[]) {
+
+		for (int k = 0; k < counts.length; k++) {
+			counts[k] = new TranslationTable();
+			totals[k] = HashIntFloatMaps.newMutableMap();
+		}
+
 		jobs.execute(new Runnable() {
+
 			@Override
 			public void run() {
-				try {
-					BufferedReader reader = new BufferedReader(
-							new InputStreamReader(
-									new FileInputStream(fileName), Charset
-											.forName("UTF8")));
-					String line = null;
-					int i = 0;
-					while ((line = reader.readLine()) != null) {
-						String words[] = line.split("\\s+");
-						lines[i] = new int[words.length + 1];
-						lines[i][0] = 0;
-						int j = 1;
-						for (String word : words) {
-							int code = 0;
-							if (!codes.containsKey(word)) {
-								code = codes.size() + 1;
-								codes.put(word, code);
-							} else {
-								code = codes.getInt(word);
-							}
-							lines[i][j++] = code;
-						}
-						i++;
+				int swords[] = src_mixdomain.words();
+				int twords[] = trg_mixdomain.words();
+				long sentences = 0;
+				long pairs = 0;
+				for (int sent = start; sent < end; sent++) {
+
+					if (ignore.contains(sent))
+						continue;
+
+					int sFrom = src_mixdomain.start(sent);
+					int sTo = src_mixdomain.end(sent);
+					int tFrom = trg_mixdomain.start(sent);
+					int tTo = trg_mixdomain.end(sent);
+					sentences++;
+
+					if (sPD[1][sent] >= CONF_THRESHOLD) {
+						// the normalization and the counts, see collectCounts
+						pairs += 2 * Metrics.pairs(sTo - sFrom, tTo - tFrom);
+						collectCounts(swords, sFrom, sTo, twords, tFrom, tTo,
+								ttable[0], sPD[1][sent], counts[0], totals[0]);
+						collectCounts(twords, tFrom, tTo, swords, sFrom, sTo,
+								ttable[1], sPD[1][sent], counts[1], totals[1]);
+					}
+					if (sPD[0][sent] >= CONF_THRESHOLD) {
+						pairs += 2 * Metrics.pairs(sTo - sFrom, tTo - tFrom);
+						collectCounts(swords, sFrom, sTo, twords, tFrom, tTo,
+								ttable[2], sPD[0][sent], counts[2], totals[2]);
+						collectCounts(twords, tFrom, tTo, swords, sFrom, sTo,
+								ttable[3], sPD[0][sent], counts[3], totals[3]);
 					}
-					reader.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-					System.exit(1);
 				}
-				writeEncodedFile(fileName + ".encoded", lines);
-				log.info(fileName + " ... DONE");
+				metrics.count(sentences, pairs);
 				InvitationModel.latch.countDown();
 			}
 		});
 	}
 
-	public static void writeEncodedFile(final String fileName,
-			final int lines[][]) {
+	/**
+	 * Adds the counts of shard from into shard into for table k and releases
+	 * the accumulators of shard from.
+	 */
+	public static void mergeCounts(final TranslationTable counts[][],
+			final HashIntFloatMap totals[][], final int into, final int from,
+			final int k) {
 
 		jobs.execute(new Runnable() {
 
 			@Override
 			public void run() {
-				try {
-					BufferedWriter encodedWriter = new BufferedWriter(
-							new OutputStreamWriter(new FileOutputStream(
-									fileName), Charset.forName("UTF8")));
-					for (int i = 0; i < lines.length; i++) {
-						for (int j = 1; j < lines[i].length; j++) {
-							int word = lines[i][j];
-							encodedWriter.write("" + word);
-							encodedWriter.write(" ");
-						}
-						encodedWriter.write("\n");
+				TranslationTable target = counts[into][k];
+				for (IntObjCursor<HashIntFloatMap> c = counts[from][k].ttable
+						.cursor(); c.moveNext();) {
+					int tw = c.key();
+					for (IntFloatCursor e = c.value().cursor(); e.moveNext();) {
+						int sw = e.key();
+						target.put(tw, sw, logAdd(target.get(tw, sw,
+								Float.NEGATIVE_INFINITY), e.value()));
 					}
-					encodedWriter.close();
-				} catch (IOException e) {
-					e.printStackTrace();
 				}
-
+				HashIntFloatMap targetTotals = totals[into][k];
+				for (IntFloatCursor e = totals[from][k].cursor(); e.moveNext();) {
+					targetTotals.put(e.key(), logAdd(targetTotals.getOrDefault(
+							e.key(), Float.NEGATIVE_INFINITY), e.value()));
+				}
+				counts[from][k] = null;
+				totals[from][k] = null;
+				InvitationModel.latch.countDown();
 			}
-
 		});
+	}
+
+	/**
+	 * E-step counts of the sentence pair src[sFrom .. sTo-1], trg[tFrom ..
+	 * tTo-1], weighted by the sentence posterior sentPD, added to counts and
+	 * totals.
+	 */
+	public static void collectCounts(final int src[], final int sFrom,
+			final int sTo, final int trg[], final int tFrom, final int tTo,
+			final TranslationTable ttable, final float sentPD,
+			final TranslationTable counts, final HashIntFloatMap totals) {
+
+		HashIntFloatMap s_total = HashIntFloatMaps.newMutableMap();
+		int length = sTo - sFrom;
+		float row[] = new float[length];
+
+		// calculating normalization
+		for (int t = tFrom + 1; t < tTo; t++) {
+			int tw = trg[t];
+			ttable.gather(tw, src, sFrom, sTo, p, row);
+			s_total.put(tw, scoring.accumulate(s_total.getOrDefault(
+					tw, Float.NEGATIVE_INFINITY), row, length));
+		}
 
+		// collect counts
+		for (int t = tFrom + 1; t < tTo; t++) {
+			int tw = trg[t];
+			ttable.gather(tw, src, sFrom, sTo, p, row);
+			for (int s = 0; s < length; s++) {
+				int sw = src[sFrom + s];
+				float in_count = sentPD + (row[s] - s_total.get(tw));
+				counts.put(
+						tw,
+						sw,
+						logAdd(counts.get(tw, sw,
+								Float.NEGATIVE_INFINITY), in_count));
+				totals.put(
+						sw,
+						logAdd(totals.getOrDefault(sw,
+								Float.NEGATIVE_INFINITY), in_count));
+			}
+		}
 	}
 
-	public static float getLMProb(NgramLanguageModel<String> lm, int sent[]) {
-		List<String> words = new ArrayList<String>();
-		for (int i = 1; i < sent.length; i++) {
-			words.add("" + sent[i]);
+	public static void maximize(TranslationTable ttable,
+			TranslationTable counts, HashIntFloatMap totals) {
+		for (int tw : counts.ttable.keySet()) {
+			HashIntFloatMap tMap = counts.ttable.get(tw);
+			for (int sw : tMap.keySet()) {
+				float newProb = counts.get(tw, sw) - totals.get(sw);
+				ttable.put(tw, sw, newProb);
+			}
 		}
-		return lm.getLogProb(words);
+		prune(ttable);
+		ttable.freeze();
 	}
 
-	public static void createLM(final String fileName, final float lm[][],
-			final int index, final int corpus[][]) {
+	/**
+	 * Applies the pruning options to a table; scoring uses the floor p for
+	 * the removed entries.
+	 */
+	static void prune(TranslationTable ttable) {
+		if (PRUNE_TOP > 0 || PRUNE_FLOOR > Float.NEGATIVE_INFINITY) {
+			int removed = ttable.prune(PRUNE_TOP, PRUNE_FLOOR);
+			log.debug("Pruned " + removed + " entries");
+		}
+	}
 
-		jobs.execute(new Runnable() {
+	public static void readFiles() throws IOException, InterruptedException {
 
-			@Override
-			public void run() {
-				log.info("Creating language model");
+		log.info("Reading files");
 
-				NgramLanguageModel<String> createdLM = null;
-				final int lmOrder = 4;
-				final List<String> inputFiles = new ArrayList<String>();
-				inputFiles.add(fileName);
-				final StringWordIndexer wordIndexer = new StringWordIndexer();
-				wordIndexer.setStartSymbol(ArpaLmReader.START_SYMBOL);
-				wordIndexer.setEndSymbol(ArpaLmReader.END_SYMBOL);
-				wordIndexer.setUnkSymbol(ArpaLmReader.UNK_SYMBOL);
-
-				createdLM = LmReaders
-						.readContextEncodedKneserNeyLmFromTextFile(inputFiles,
-								wordIndexer, lmOrder, new ConfigOptions(),
-								new File(fileName + ".lm"));
-
-				lm[index] = new float[corpus.length];
-				
-				for (int i = 0; i < corpus.length; i++) {
-					int sent[] = corpus[i];
-					lm[index][i] = getLMProb(createdLM, sent);
-				}
+		Metrics.Phase phase = metrics.start("read", 0);
 
-				log.info(".");
+		// code 0 is the NULL word; the codes of the words start at 2 as they
+		// always have, so that encoded files of earlier runs stay valid
+		src_vocabulary = new Vocabulary(2);
+		trg_vocabulary = new Vocabulary(2);
 
-				InvitationModel.latch.countDown();
+		String fileNames[] = { IN + "." + SRC, IN + "." + TRG, MIX + "." + SRC,
+				MIX + "." + TRG };
+		Corpus corpora[] = new Corpus[fileNames.length];
+
+		if (isEncoded(fileNames)) {
+			log.info("Reading encoded corpora");
+			for (int i = 0; i < fileNames.length; i++) {
+				corpora[i] = Corpus.open(fileNames[i] + ".bin");
+			}
+		} else {
+			corpora[0] = readFile(fileNames[0], src_vocabulary);
+			corpora[1] = readFile(fileNames[1], trg_vocabulary);
+			corpora[2] = readFile(fileNames[2], src_vocabulary);
+			corpora[3] = readFile(fileNames[3], trg_vocabulary);
+			frequencyOrder(src_vocabulary, corpora[0], corpora[2]);
+			frequencyOrder(trg_vocabulary, corpora[1], corpora[3]);
+			long vocabularies[] = { src_vocabulary.fingerprint(),
+					trg_vocabulary.fingerprint() };
+			for (int i = 0; i < fileNames.length; i++) {
+				corpora[i].vocabulary = vocabularies[i % 2];
+				writeEncodedFile(fileNames[i], corpora[i]);
 			}
+			src_vocabulary.write(IN + "." + SRC + ".vocab");
+			trg_vocabulary.write(IN + "." + TRG + ".vocab");
+		}
+
+		src_indomain = corpora[0];
+		trg_indomain = corpora[1];
+		src_mixdomain = corpora[2];
+		trg_mixdomain = corpora[3];
+
+		metrics.end(phase, 2L * (src_indomain.size() + src_mixdomain.size()),
+				0);
 
-		});
 	}
 
-	public static float logAdd(float a, float b) {
-		float max, negDiff;
-		if (a > b) {
-			max = a;
-			negDiff = b - a;
+	/**
+	 * Reads the corpora of incremental mode: the in-domain and out-domain
+	 * corpora of the trained model, and the new mix-domain corpus encoded
+	 * with the vocabularies of the model.
+	 */
+	public static void readNewFiles() throws IOException,
+			InterruptedException {
+
+		log.info("Reading new files");
+
+		Metrics.Phase phase = metrics.start("read", 0);
+
+		src_vocabulary = Vocabulary.open(IN + "." + SRC + ".vocab");
+		trg_vocabulary = Vocabulary.open(IN + "." + TRG + ".vocab");
+		int srcKnown = src_vocabulary.next();
+		int trgKnown = trg_vocabulary.next();
+		long srcVocabulary = src_vocabulary.fingerprint();
+		long trgVocabulary = trg_vocabulary.fingerprint();
+
+		src_indomain = openEncoded(IN + "." + SRC + ".bin", srcVocabulary);
+		trg_indomain = openEncoded(IN + "." + TRG + ".bin", trgVocabulary);
+		src_outdomain = openEncoded("outdomain." + SRC + ".bin", srcVocabulary);
+		trg_outdomain = openEncoded("outdomain." + TRG + ".bin", trgVocabulary);
+
+		src_mixdomain = CorpusReader.read(MIX + "." + SRC, src_vocabulary, pool);
+		trg_mixdomain = CorpusReader.read(MIX + "." + TRG, trg_vocabulary, pool);
+
+		if (UNKNOWN.equals("add")) {
+			// the vocabularies of the model stay as they are, so every
+			// incremental run starts from the same known words
+			src_vocabulary.write(MIX + "." + SRC + ".vocab");
+			trg_vocabulary.write(MIX + "." + TRG + ".vocab");
 		} else {
-			max = b;
-			negDiff = a - b;
+			unknownWords(src_mixdomain, srcKnown);
+			unknownWords(trg_mixdomain, trgKnown);
+		}
+		src_mixdomain.vocabulary = src_vocabulary.fingerprint();
+		trg_mixdomain.vocabulary = trg_vocabulary.fingerprint();
+
+		// not under the names of a full training, which would take these
+		// codes of the model for its own
+		writeEncodedFile(MIX + "." + SRC + ".inc", src_mixdomain);
+		writeEncodedFile(MIX + "." + TRG + ".inc", trg_mixdomain);
+
+		metrics.end(phase, 2L * src_mixdomain.size(), 0);
+
+		log.info("DONE");
+	}
+
+	/**
+	 * Applies the map or skip policy to the words of the corpus with a code
+	 * of known or above.
+	 */
+	private static void unknownWords(Corpus corpus, int known) {
+		int words[] = corpus.words();
+		int unknown = 0;
+		for (int sent = 0; sent < corpus.size(); sent++) {
+			for (int i = corpus.start(sent); i < corpus.end(sent); i++) {
+				if (words[i] >= known) {
+					unknown++;
+					if (UNKNOWN.equals("skip")) {
+						ignore.add(sent);
+						break;
+					}
+					words[i] = UNKNOWN_WORD;
+				}
+			}
 		}
-		if (max == Float.NEGATIVE_INFINITY) {
-			return max;
-		} else if (negDiff < -20.0f) {
-			return max;
+		if (UNKNOWN.equals("skip")) {
+			log.info("Skipping " + unknown + " sentences with unknown words");
 		} else {
-			return max + (float) Math.log(1.0 + Math.exp(negDiff));
+			log.info(unknown + " unknown words");
 		}
 	}
 
-}
+	/**
+	 * Restores the translation tables and domain priors of the trained model
+	 * for incremental mode.
+	 */
+	public static void loadModel() throws IOException {
+		Checkpoint model = Checkpoint.read(MODEL);
+		checkVocabularies(model, MODEL);
+		log.info("Using the model after iteration " + model.iteration);
+		PD1 = model.pd1;
+		PD0 = model.pd0;
+		for (int i = 0; i < ttable.length; i++) {
+			ttable[i] = model.tables[i];
+		}
+	}
 
-class Result implements Comparable<Result> {
+	/**
+	 * Fails unless the tables of the checkpoint number the words like the
+	 * in-domain corpora.
+	 */
+	static void checkVocabularies(Checkpoint checkpoint, String name)
+			throws IOException {
+		if (checkpoint.vocabularies[0] != src_indomain.vocabulary
+				|| checkpoint.vocabularies[1] != trg_indomain.vocabulary) {
+			throw new IOException("The words of " + name + " are numbered "
+					+ "with other vocabularies than " + IN + "." + SRC
+					+ " and " + IN + "." + TRG
+					+ ", it was trained with another mix-domain corpus");
+		}
+	}
 
-	int sentenceNumber;
-	float score = 1;
-	float lm_score = 1;
+	/**
+	 * Opens an encoded corpus of the model for incremental mode and fails
+	 * unless it was encoded with the given vocabulary.
+	 */
+	static Corpus openEncoded(String fileName, long vocabulary)
+			throws IOException {
+		Corpus corpus = Corpus.open(fileName);
+		if (corpus.vocabulary != vocabulary) {
+			throw new IOException(fileName + " was encoded with another "
+					+ "vocabulary than the .vocab files, train again");
+		}
+		return corpus;
+	}
 
-	public Result(int sentenceNumber, float score) {
-		this.sentenceNumber = sentenceNumber + 1;
-		this.score = score;
+	/**
+	 * The binary corpora of a previous run can be reused when all of them
+	 * are newer than their text files and were encoded with the
+	 * vocabularies in the .vocab files. The codes depend on the word
+	 * frequencies of both the in-domain and the mix-domain corpus, so the
+	 * in-domain files encoded next to another mix-domain corpus do not
+	 * match.
+	 */
+	private static boolean isEncoded(String fileNames[]) {
+		long vocabularies[] = {
+				Vocabulary.fingerprint(IN + "." + SRC + ".vocab"),
+				Vocabulary.fingerprint(IN + "." + TRG + ".vocab") };
+		for (int i = 0; i < fileNames.length; i++) {
+			File text = new File(fileNames[i]);
+			File encoded = new File(fileNames[i] + ".bin");
+			if (vocabularies[i % 2] == 0
+					|| Corpus.vocabulary(encoded.getPath()) != vocabularies[i % 2]
+					|| encoded.lastModified() < text.lastModified()) {
+				return false;
+			}
+		}
+		return new File(fileNames[0] + ".encoded").exists()
+				&& new File(fileNames[1] + ".encoded").exists();
 	}
 
-	public Result(int sentenceNumber, float score, float lm_score) {
-		this.sentenceNumber = sentenceNumber + 1;
-		this.score = score;
-		this.lm_score = lm_score;
+	/**
+	 * Reads and encodes one corpus in parallel on the pool.
+	 */
+	public static Corpus readFile(String fileName, Vocabulary vocabulary)
+			throws IOException, InterruptedException {
+		Corpus corpus = CorpusReader.read(fileName, vocabulary, pool);
+		log.info(fileName + " ... DONE");
+		return corpus;
 	}
 
-	@Override
-	public int compareTo(Result result) {
-		int cmp = Float.compare(result.score, this.score);
-		if (cmp == 0) {
-			cmp = Float.compare(result.lm_score, this.lm_score);
+	/**
+	 * Renumbers the words of the vocabulary by their frequency in the
+	 * corpora, so the most frequent words get the smallest codes and the
+	 * table rows of the frequent words lie close together, and recodes the
+	 * corpora accordingly.
+	 */
+	static void frequencyOrder(Vocabulary vocabulary, Corpus... corpora) {
+		int codes[] = vocabulary.sortByFrequency(corpora);
+		for (Corpus corpus : corpora) {
+			corpus.recode(codes);
 		}
-		return cmp;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Writes the corpus as text to fileName.encoded and in the binary format
+	 * to fileName.bin, which is mapped instead of re-parsed on the next run.
+	 */
+	public static void writeEncodedFile(final String fileName,
+			final Corpus corpus) {
+
+		jobs.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					corpus.writeText(fileName + ".encoded");
+					corpus.write(fileName + ".bin");
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+
+			}
+
+		});
+
+	}
+
+	public static void createLM(final Corpus training, final float lm[][],
+			final int index, final Corpus corpus) {
+
+		jobs.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				log.info("Creating language model");
+
+				final LanguageModel createdLM = LanguageModel.build(training, 4);
+
+				final float scores[] = new float[corpus.size()];
+
+				SentenceLoop.run(pool, SentenceLoop.lengths(corpus), 0,
+						corpus.size(), new SentenceLoop.Body() {
+							@Override
+							public void run(int start, int end) {
+								LmContextInfo context = new LmContextInfo();
+								for (int i = start; i < end; i++) {
+									scores[i] = createdLM.logProb(
+											corpus.words(), corpus.start(i),
+											corpus.end(i), context);
+								}
+							}
+						});
+
+				lm[index] = scores;
+
+				log.info(".");
+
+				InvitationModel.latch.countDown();
+			}
+
+		});
+	}
+
+	public static float logAdd(float a, float b) {
+		if (LOG_ADD_TABLE) {
+			return LogMath.logAddTable(a, b);
+		}
+		return LogMath.logAddExact(a, b);
+	}
+
+}
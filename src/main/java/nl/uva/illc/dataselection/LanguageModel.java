@@ -0,0 +1,140 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.util.Arrays;
+
+import edu.berkeley.nlp.lm.ConfigOptions;
+import edu.berkeley.nlp.lm.ContextEncodedNgramLanguageModel;
+import edu.berkeley.nlp.lm.ContextEncodedNgramLanguageModel.LmContextInfo;
+import edu.berkeley.nlp.lm.StringWordIndexer;
+import edu.berkeley.nlp.lm.io.ArpaLmReader;
+import edu.berkeley.nlp.lm.io.KneserNeyLmReaderCallback;
+import edu.berkeley.nlp.lm.io.LmReaders;
+import edu.berkeley.nlp.lm.util.LongRef;
+
+/**
+ * Kneser-Ney language model of an encoded corpus. The n-grams are counted
+ * straight from the word codes of the corpus and the estimated model is
+ * loaded into a context-encoded BerkeleyLM model without writing and parsing
+ * an ARPA file. Each word code is mapped to its LM word index once, so
+ * scoring a sentence needs no Strings.
+ */
+
+public class LanguageModel {
+
+	final ContextEncodedNgramLanguageModel<String> lm;
+
+	// LM word index of each word code seen in training
+	final int indices[];
+	final int unk;
+
+	LanguageModel(ContextEncodedNgramLanguageModel<String> lm, int indices[],
+			int unk) {
+		this.lm = lm;
+		this.indices = indices;
+		this.unk = unk;
+	}
+
+	public static LanguageModel build(Corpus corpus, int order) {
+		ConfigOptions opts = new ConfigOptions();
+		StringWordIndexer wordIndexer = new StringWordIndexer();
+		wordIndexer.setStartSymbol(ArpaLmReader.START_SYMBOL);
+		wordIndexer.setEndSymbol(ArpaLmReader.END_SYMBOL);
+		wordIndexer.setUnkSymbol(ArpaLmReader.UNK_SYMBOL);
+		int start = wordIndexer.getOrAddIndex(wordIndexer.getStartSymbol());
+		int end = wordIndexer.getOrAddIndex(wordIndexer.getEndSymbol());
+
+		int words[] = corpus.words();
+		int maxCode = 0;
+		int maxLength = 0;
+		for (int i = 0; i < words.length; i++) {
+			maxCode = Math.max(maxCode, words[i]);
+		}
+		for (int sent = 0; sent < corpus.size(); sent++) {
+			maxLength = Math.max(maxLength, corpus.length(sent));
+		}
+		int indices[] = new int[maxCode + 1];
+		Arrays.fill(indices, -1);
+
+		KneserNeyLmReaderCallback<String> counts = new KneserNeyLmReaderCallback<String>(
+				wordIndexer, order, opts);
+		int ngram[] = new int[maxLength + 2];
+		for (int sent = 0; sent < corpus.size(); sent++) {
+			int length = 0;
+			ngram[length++] = start;
+			if (corpus.length(sent) == 1) {
+				// an empty line of the encoded text was read as one empty word
+				ngram[length++] = wordIndexer.getOrAddIndexFromString("");
+			}
+			for (int i = corpus.start(sent) + 1; i < corpus.end(sent); i++) {
+				int code = words[i];
+				if (indices[code] < 0) {
+					indices[code] = wordIndexer.getOrAddIndexFromString(Integer
+							.toString(code));
+				}
+				ngram[length++] = indices[code];
+			}
+			ngram[length++] = end;
+			counts.call(ngram, 0, length, new LongRef(1L), null);
+		}
+		counts.cleanup();
+
+		ContextEncodedNgramLanguageModel<String> lm = LmReaders
+				.readContextEncodedLmFromArpa(counts, wordIndexer, opts);
+		int unk = wordIndexer.getIndexPossiblyUnk(wordIndexer.getUnkSymbol());
+		for (int code = 0; code < indices.length; code++) {
+			if (indices[code] < 0) {
+				indices[code] = unk;
+			}
+		}
+		return new LanguageModel(lm, indices, unk);
+	}
+
+	/**
+	 * Score of the sentence words[from .. to-1], which starts with the NULL
+	 * word: the log10 probability of its last word given the preceding
+	 * words, as NgramLanguageModel.getLogProb gives for the sentence as a
+	 * list of words. NaN for an empty sentence.
+	 */
+	public float logProb(int words[], int from, int to) {
+		return logProb(words, from, to, new LmContextInfo());
+	}
+
+	/**
+	 * As {@link #logProb(int[], int, int)}, using context as scratch space so
+	 * that a thread scoring many sentences can reuse it.
+	 */
+	public float logProb(int words[], int from, int to, LmContextInfo context) {
+		// empty context
+		context.offset = -1L;
+		context.order = -1;
+		float prob = Float.NaN;
+		for (int i = from + 1; i < to; i++) {
+			prob = lm.getLogProb(context.offset, context.order,
+					index(words[i]), context);
+		}
+		return prob;
+	}
+
+	int index(int code) {
+		return code < indices.length ? indices[code] : unk;
+	}
+
+}
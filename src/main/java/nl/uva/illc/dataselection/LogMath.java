@@ -0,0 +1,92 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+/**
+ * Log-space arithmetic kernels. logAdd(a, b) = log(exp(a) + exp(b)) is
+ * computed as max + log(1 + exp(negDiff)) with negDiff = min - max in
+ * [-20, 0]; below -20 the correction is dropped.
+ * 
+ * The table variant replaces the log/exp pair by a linear interpolation in a
+ * precomputed table of log(1 + exp(x)) with STEPS points per unit. Since the
+ * second derivative of log(1 + exp(x)) is at most 1/4, the interpolation
+ * error is bounded by 1 / (32 * STEPS^2), about 2e-6 for 128 steps. With
+ * the float rounding of the interpolation position the error stays below
+ * MAX_TABLE_ERROR (2.44e-6 measured over all floats in [-20, 0]) plus the
+ * rounding of the result, which is below the float resolution of typical
+ * sentence scores.
+ */
+
+public class LogMath {
+
+	static final float MIN_DIFF = -20.0f;
+
+	static final int STEPS = 128;
+
+	static final double MAX_TABLE_ERROR = 2.5e-6;
+
+	private static final float LOG1P_EXP[] = new float[(int) (-MIN_DIFF * STEPS) + 2];
+
+	static {
+		for (int i = 0; i < LOG1P_EXP.length; i++) {
+			double x = MIN_DIFF + (double) i / STEPS;
+			LOG1P_EXP[i] = (float) Math.log1p(Math.exp(x));
+		}
+	}
+
+	public static float logAddExact(float a, float b) {
+		float max, negDiff;
+		if (a > b) {
+			max = a;
+			negDiff = b - a;
+		} else {
+			max = b;
+			negDiff = a - b;
+		}
+		if (max == Float.NEGATIVE_INFINITY) {
+			return max;
+		} else if (negDiff < MIN_DIFF) {
+			return max;
+		} else {
+			return max + (float) Math.log(1.0 + Math.exp(negDiff));
+		}
+	}
+
+	public static float logAddTable(float a, float b) {
+		float max, negDiff;
+		if (a > b) {
+			max = a;
+			negDiff = b - a;
+		} else {
+			max = b;
+			negDiff = a - b;
+		}
+		if (max == Float.NEGATIVE_INFINITY) {
+			return max;
+		} else if (negDiff < MIN_DIFF) {
+			return max;
+		} else {
+			float pos = (negDiff - MIN_DIFF) * STEPS;
+			int i = (int) pos;
+			float lo = LOG1P_EXP[i];
+			return max + lo + (pos - i) * (LOG1P_EXP[i + 1] - lo);
+		}
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
+
+/**
+ * Translation table served directly from a memory-mapped snapshot file. The
+ * file holds the same CSR layout as {@link CompactTranslationTable}, so
+ * opening it only maps the file and lookups read from the page cache.
+ * Several processes mapping the same snapshot share its physical pages.
+ * 
+ * Snapshot layout (little endian):
+ * 
+ * <pre>
+ * int magic, int version, int rowCount, int size
+ * int rows[rowCount]
+ * int sources[size]
+ * float probs[size]
+ * </pre>
+ */
+
+public class MappedTranslationTable implements FrozenTranslationTable {
+
+	static final int MAGIC = 0x49545442; // "ITTB"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+
+	final IntBuffer rows;
+	final IntBuffer sources;
+	final FloatBuffer probs;
+
+	MappedTranslationTable(IntBuffer rows, IntBuffer sources, FloatBuffer probs) {
+		this.rows = rows;
+		this.sources = sources;
+		this.probs = probs;
+	}
+
+	public static MappedTranslationTable open(String fileName)
+			throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			IntBuffer header = BinaryFiles.header(channel, fileName, MAGIC,
+					VERSION, HEADER_SIZE / 4);
+			int rowCount = header.get(2);
+			int size = header.get(3);
+			long position = HEADER_SIZE;
+			IntBuffer rows = BinaryFiles.map(channel, position, 4L * rowCount)
+					.asIntBuffer();
+			position += 4L * rowCount;
+			IntBuffer sources = BinaryFiles.map(channel, position, 4L * size)
+					.asIntBuffer();
+			position += 4L * size;
+			FloatBuffer probs = BinaryFiles.map(channel, position, 4L * size)
+					.asFloatBuffer();
+			return new MappedTranslationTable(rows, sources, probs);
+		} finally {
+			// the mappings stay valid after the channel is closed
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot to a temporary file and renames it into place, so
+	 * readers never observe a partially written table.
+	 */
+	static void write(String fileName, IntBuffer rows, IntBuffer sources,
+			FloatBuffer probs) throws IOException {
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BinaryFiles.allocate();
+			BinaryFiles.writeInts(channel, buffer, MAGIC, VERSION,
+					rows.remaining(), sources.remaining());
+			BinaryFiles.writeInts(channel, buffer, rows);
+			BinaryFiles.writeInts(channel, buffer, sources);
+			BinaryFiles.writeFloats(channel, buffer, probs);
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+	}
+
+	private int find(int from, int to, int sw) {
+		to--;
+		while (from <= to) {
+			int mid = (from + to) >>> 1;
+			int v = sources.get(mid);
+			if (v < sw) {
+				from = mid + 1;
+			} else if (v > sw) {
+				to = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public float get(int tw, int sw) {
+		if (tw < 0 || tw >= rows.limit() - 1) {
+			return Float.NaN;
+		}
+		int i = find(rows.get(tw), rows.get(tw + 1), sw);
+		return i < 0 ? Float.NaN : probs.get(i);
+	}
+
+	@Override
+	public void gather(int tw, int words[], int from, int to, float d,
+			float out[]) {
+		if (tw < 0 || tw >= rows.limit() - 1) {
+			for (int s = from; s < to; s++) {
+				out[s - from] = d;
+			}
+			return;
+		}
+		int rowFrom = rows.get(tw);
+		int rowTo = rows.get(tw + 1);
+		for (int s = from; s < to; s++) {
+			int i = find(rowFrom, rowTo, words[s]);
+			out[s - from] = i < 0 ? d : probs.get(i);
+		}
+	}
+
+	@Override
+	public int size() {
+		return sources.limit();
+	}
+
+	@Override
+	public HashIntObjMap<HashIntFloatMap> toMap() {
+		HashIntObjMap<HashIntFloatMap> ttable = HashIntObjMaps.newMutableMap();
+		for (int tw = 0; tw < rows.limit() - 1; tw++) {
+			int from = rows.get(tw);
+			int to = rows.get(tw + 1);
+			if (from == to) {
+				continue;
+			}
+			HashIntFloatMap tMap = HashIntFloatMaps.newMutableMap(to - from);
+			for (int i = from; i < to; i++) {
+				tMap.put(sources.get(i), probs.get(i));
+			}
+			ttable.put(tw, tMap);
+		}
+		return ttable;
+	}
+
+	@Override
+	public void write(String fileName) throws IOException {
+		write(fileName, rows, sources, probs);
+	}
+
+}
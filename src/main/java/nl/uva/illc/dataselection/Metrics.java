@@ -0,0 +1,279 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Time, throughput and memory of the phases of a training run. A phase is
+ * measured from {@link #start(String, int)} to {@link #end(Phase)}: wall
+ * time, CPU time of the whole process, the sentences and word pairs the
+ * workers reported with {@link #count(long, long)} in between, and the heap
+ * in use at the end. The word pairs are the translation table lookups of
+ * the scoring and of the count collection. The CPU time includes the
+ * background writes that overlap the phase.
+ * 
+ * The finished phases of an iteration are written as one JSON object per
+ * line with {@link #write(String, int, long[])}; the running totals are
+ * available through JMX as nl.uva.illc.dataselection:type=Metrics.
+ */
+
+public class Metrics implements MetricsMBean {
+
+	static final String NAME = "nl.uva.illc.dataselection:type=Metrics";
+
+	/**
+	 * One run of a phase.
+	 */
+	public static class Phase {
+
+		final String name;
+		final int iteration;
+		final long startWall;
+		final long startCpu;
+		final long startSentences;
+		final long startPairs;
+
+		long wallNanos;
+		long cpuNanos;
+		long sentences;
+		long pairs;
+		long heapUsed;
+
+		Phase(String name, int iteration, long startWall, long startCpu,
+				long startSentences, long startPairs) {
+			this.name = name;
+			this.iteration = iteration;
+			this.startWall = startWall;
+			this.startCpu = startCpu;
+			this.startSentences = startSentences;
+			this.startPairs = startPairs;
+		}
+
+		double sentencesPerSecond() {
+			return wallNanos > 0 ? sentences * 1e9 / wallNanos : 0;
+		}
+
+		double pairsPerSecond() {
+			return wallNanos > 0 ? pairs * 1e9 / wallNanos : 0;
+		}
+
+		String toJson() {
+			return String.format(Locale.ROOT, "{\"phase\":\"%s\",\"wallSeconds\":%.3f,"
+					+ "\"cpuSeconds\":%.3f,\"sentences\":%d,"
+					+ "\"sentencesPerSecond\":%.1f,\"wordPairs\":%d,"
+					+ "\"wordPairsPerSecond\":%.1f,\"heapUsed\":%d}", name,
+					wallNanos / 1e9, cpuNanos / 1e9, sentences,
+					sentencesPerSecond(), pairs, pairsPerSecond(), heapUsed);
+		}
+
+	}
+
+	final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	final OperatingSystemMXBean os = ManagementFactory
+			.getOperatingSystemMXBean();
+
+	// reported by the workers, once per chunk of sentences
+	final AtomicLong sentences = new AtomicLong();
+	final AtomicLong pairs = new AtomicLong();
+
+	// finished phases that are not written yet
+	final List<Phase> phases = new ArrayList<Phase>();
+
+	volatile String current = "";
+	volatile int iteration = 0;
+	volatile Phase last = null;
+	volatile Phase throughput = null;
+	volatile long tableEntries = 0;
+
+	/**
+	 * Registers the metrics with the platform MBean server.
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName(NAME));
+	}
+
+	public Phase start(String name, int iteration) {
+		current = name;
+		this.iteration = iteration;
+		return new Phase(name, iteration, System.nanoTime(), cpuTime(),
+				sentences.get(), pairs.get());
+	}
+
+	/**
+	 * Ends a phase whose work was reported with {@link #count(long, long)}.
+	 */
+	public void end(Phase phase) {
+		end(phase, sentences.get() - phase.startSentences, pairs.get()
+				- phase.startPairs);
+	}
+
+	/**
+	 * Ends a phase with the given amount of work, for phases that run
+	 * next to others that report their work.
+	 */
+	public void end(Phase phase, long sentences, long pairs) {
+		phase.wallNanos = System.nanoTime() - phase.startWall;
+		phase.cpuNanos = cpuTime() - phase.startCpu;
+		phase.sentences = sentences;
+		phase.pairs = pairs;
+		phase.heapUsed = memory.getHeapMemoryUsage().getUsed();
+		synchronized (phases) {
+			phases.add(phase);
+		}
+		last = phase;
+		if (pairs > 0) {
+			throughput = phase;
+		}
+	}
+
+	public void count(long sentences, long pairs) {
+		this.sentences.addAndGet(sentences);
+		this.pairs.addAndGet(pairs);
+	}
+
+	/**
+	 * Word pairs looked up in the two tables of one domain for a sentence
+	 * pair with the given lengths, NULL words included: once each for the
+	 * scoring, the count collection looks every pair up twice.
+	 */
+	static long pairs(int sLength, int tLength) {
+		return (long) sLength * (tLength - 1) + (long) tLength
+				* (sLength - 1);
+	}
+
+	/**
+	 * Appends the finished phases of the iteration (0 for the setup) as one
+	 * line of JSON to fileName.
+	 */
+	public void write(String fileName, int iteration, long entries[])
+			throws IOException {
+		long total = 0;
+		StringBuilder json = new StringBuilder();
+		json.append("{\"iteration\":").append(iteration);
+		if (entries != null) {
+			json.append(",\"tableEntries\":[");
+			for (int k = 0; k < entries.length; k++) {
+				json.append(k > 0 ? "," : "").append(entries[k]);
+				total += entries[k];
+			}
+			json.append(']');
+			tableEntries = total;
+		}
+		json.append(",\"heapUsed\":").append(
+				memory.getHeapMemoryUsage().getUsed());
+		json.append(",\"heapMax\":")
+				.append(memory.getHeapMemoryUsage().getMax());
+		json.append(",\"phases\":[");
+		boolean first = true;
+		synchronized (phases) {
+			for (Iterator<Phase> i = phases.iterator(); i.hasNext();) {
+				Phase phase = i.next();
+				if (phase.iteration == iteration) {
+					json.append(first ? "" : ",").append(phase.toJson());
+					first = false;
+					i.remove();
+				}
+			}
+		}
+		json.append("]}\n");
+
+		Writer out = new FileWriter(fileName, true);
+		try {
+			out.write(json.toString());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * CPU time of all threads of the process, -1 if the JVM does not
+	 * report it.
+	 */
+	long cpuTime() {
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os)
+					.getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	@Override
+	public String getPhase() {
+		return current;
+	}
+
+	@Override
+	public int getIteration() {
+		return iteration;
+	}
+
+	@Override
+	public long getSentences() {
+		return sentences.get();
+	}
+
+	@Override
+	public long getWordPairs() {
+		return pairs.get();
+	}
+
+	@Override
+	public double getSentencesPerSecond() {
+		Phase phase = throughput;
+		return phase != null ? phase.sentencesPerSecond() : 0;
+	}
+
+	@Override
+	public double getWordPairsPerSecond() {
+		Phase phase = throughput;
+		return phase != null ? phase.pairsPerSecond() : 0;
+	}
+
+	@Override
+	public long getTableEntries() {
+		return tableEntries;
+	}
+
+	@Override
+	public long getHeapUsed() {
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	@Override
+	public String getLastPhase() {
+		Phase phase = last;
+		return phase != null ? phase.toJson() : "";
+	}
+
+}
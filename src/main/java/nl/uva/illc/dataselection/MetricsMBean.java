@@ -0,0 +1,45 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+/**
+ * JMX view of the {@link Metrics} of a training run.
+ */
+
+public interface MetricsMBean {
+
+	String getPhase();
+
+	int getIteration();
+
+	long getSentences();
+
+	long getWordPairs();
+
+	double getSentencesPerSecond();
+
+	double getWordPairsPerSecond();
+
+	long getTableEntries();
+
+	long getHeapUsed();
+
+	String getLastPhase();
+
+}
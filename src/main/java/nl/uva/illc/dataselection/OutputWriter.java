@@ -0,0 +1,125 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Buffered writer of text and little endian binary output through a file
+ * channel. Numbers are formatted straight into one reused direct buffer, so
+ * writing a line allocates no strings. The text of the numbers is the same
+ * as that of PrintWriter.print.
+ */
+
+class OutputWriter implements Closeable {
+
+	final FileChannel channel;
+	final ByteBuffer buffer = BinaryFiles.allocate();
+	final byte digits[] = new byte[20];
+	final StringBuilder number = new StringBuilder(32);
+
+	OutputWriter(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	static OutputWriter create(String fileName) throws IOException {
+		return new OutputWriter(new FileOutputStream(fileName).getChannel());
+	}
+
+	void print(char c) throws IOException {
+		ensure(1);
+		buffer.put((byte) c);
+	}
+
+	void println() throws IOException {
+		print('\n');
+	}
+
+	void print(int value) throws IOException {
+		ensure(digits.length);
+		long v = value;
+		if (v < 0) {
+			buffer.put((byte) '-');
+			v = -v;
+		}
+		int d = digits.length;
+		do {
+			digits[--d] = (byte) ('0' + v % 10);
+			v /= 10;
+		} while (v > 0);
+		buffer.put(digits, d, digits.length - d);
+	}
+
+	void print(float value) throws IOException {
+		number.setLength(0);
+		number.append(value);
+		printNumber();
+	}
+
+	void print(double value) throws IOException {
+		number.setLength(0);
+		number.append(value);
+		printNumber();
+	}
+
+	private void printNumber() throws IOException {
+		ensure(number.length());
+		for (int i = 0; i < number.length(); i++) {
+			buffer.put((byte) number.charAt(i));
+		}
+	}
+
+	void putInt(int value) throws IOException {
+		ensure(4);
+		buffer.putInt(value);
+	}
+
+	void putFloat(float value) throws IOException {
+		ensure(4);
+		buffer.putFloat(value);
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
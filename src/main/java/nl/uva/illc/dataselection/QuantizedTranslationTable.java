@@ -0,0 +1,175 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
+import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
+
+/**
+ * {@link CompactTranslationTable} with the log-probabilities quantized to 16
+ * or 8 bits. The range of the finite log-probabilities of the table is split
+ * into 2^bits - 1 equal steps and every entry stores the number of its
+ * nearest step, so the values take a half (16 bits) or a quarter (8 bits) of
+ * the memory and are decoded with one multiply-add in the lookup. The error
+ * of a value is at most half a step; -Infinity is stored as the minimum.
+ */
+
+public class QuantizedTranslationTable implements FrozenTranslationTable {
+
+	final int rows[];
+	final int sources[];
+
+	// one of the two holds the codes, depending on the number of bits
+	final char wide[];
+	final byte narrow[];
+
+	final float min;
+	final float step;
+
+	QuantizedTranslationTable(int rows[], int sources[], char wide[],
+			byte narrow[], float min, float step) {
+		this.rows = rows;
+		this.sources = sources;
+		this.wide = wide;
+		this.narrow = narrow;
+		this.min = min;
+		this.step = step;
+	}
+
+	public static QuantizedTranslationTable build(
+			HashIntObjMap<HashIntFloatMap> ttable, int bits) {
+		CompactTranslationTable table = CompactTranslationTable.build(ttable);
+		return quantize(table.rows, table.sources, table.probs, bits);
+	}
+
+	static QuantizedTranslationTable quantize(int rows[], int sources[],
+			float probs[], int bits) {
+		if (bits != 8 && bits != 16) {
+			throw new IllegalArgumentException("Unsupported quantization: "
+					+ bits + " bits");
+		}
+		float min = Float.POSITIVE_INFINITY;
+		float max = Float.NEGATIVE_INFINITY;
+		for (float prob : probs) {
+			if (!Float.isInfinite(prob)) {
+				min = Math.min(min, prob);
+				max = Math.max(max, prob);
+			}
+		}
+		if (min > max) {
+			min = max = 0f;
+		}
+		int levels = (1 << bits) - 1;
+		float step = max > min ? (max - min) / levels : 1f;
+
+		char wide[] = bits == 16 ? new char[probs.length] : null;
+		byte narrow[] = bits == 8 ? new byte[probs.length] : null;
+		for (int i = 0; i < probs.length; i++) {
+			int code;
+			if (probs[i] == Float.NEGATIVE_INFINITY) {
+				code = 0;
+			} else if (probs[i] == Float.POSITIVE_INFINITY) {
+				code = levels;
+			} else {
+				code = Math.min(levels, Math.round((probs[i] - min) / step));
+			}
+			if (wide != null) {
+				wide[i] = (char) code;
+			} else {
+				narrow[i] = (byte) code;
+			}
+		}
+		return new QuantizedTranslationTable(rows, sources, wide, narrow, min,
+				step);
+	}
+
+	private float decode(int i) {
+		int code = wide != null ? wide[i] : narrow[i] & 0xff;
+		return min + code * step;
+	}
+
+	@Override
+	public float get(int tw, int sw) {
+		if (tw < 0 || tw >= rows.length - 1) {
+			return Float.NaN;
+		}
+		int i = Arrays.binarySearch(sources, rows[tw], rows[tw + 1], sw);
+		return i < 0 ? Float.NaN : decode(i);
+	}
+
+	@Override
+	public void gather(int tw, int words[], int from, int to, float d,
+			float out[]) {
+		if (tw < 0 || tw >= rows.length - 1) {
+			Arrays.fill(out, 0, to - from, d);
+			return;
+		}
+		int rowFrom = rows[tw];
+		int rowTo = rows[tw + 1];
+		for (int s = from; s < to; s++) {
+			int i = Arrays.binarySearch(sources, rowFrom, rowTo, words[s]);
+			out[s - from] = i < 0 ? d : decode(i);
+		}
+	}
+
+	@Override
+	public int size() {
+		return sources.length;
+	}
+
+	@Override
+	public HashIntObjMap<HashIntFloatMap> toMap() {
+		HashIntObjMap<HashIntFloatMap> ttable = HashIntObjMaps.newMutableMap();
+		for (int tw = 0; tw < rows.length - 1; tw++) {
+			int from = rows[tw];
+			int to = rows[tw + 1];
+			if (from == to) {
+				continue;
+			}
+			HashIntFloatMap tMap = HashIntFloatMaps.newMutableMap(to - from);
+			for (int i = from; i < to; i++) {
+				tMap.put(sources[i], decode(i));
+			}
+			ttable.put(tw, tMap);
+		}
+		return ttable;
+	}
+
+	/**
+	 * Writes the decoded values, so the snapshot is read as an ordinary
+	 * float table and holds exactly the values this table serves.
+	 */
+	@Override
+	public void write(String fileName) throws IOException {
+		float probs[] = new float[sources.length];
+		for (int i = 0; i < probs.length; i++) {
+			probs[i] = decode(i);
+		}
+		MappedTranslationTable.write(fileName, IntBuffer.wrap(rows),
+				IntBuffer.wrap(sources), FloatBuffer.wrap(probs));
+	}
+
+}
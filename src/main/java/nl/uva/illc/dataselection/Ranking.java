@@ -0,0 +1,271 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Selection of the best sentences straight from the primitive score arrays.
+ * Sentences are ordered by descending score, then by descending tiebreak
+ * score (as Float.compare orders them). The remaining ties are broken by a
+ * fixed scrambling of the sentence number, so that a selection among many
+ * equal scores, as in the burn-in, is spread over the corpus instead of
+ * taking its first lines.
+ * 
+ * A full ranking is sorted in parallel as packed long keys: the score in the
+ * high half and the scrambled sentence number in the low half, so that a
+ * signed comparison of two keys is the ranking order up to the tiebreak
+ * score. Runs of equal scores are then re-sorted with the tiebreak score in
+ * the high half. The key buffers belong to the Ranking and are reused for
+ * every ranking it sorts.
+ */
+
+public class Ranking {
+
+	static final int CHUNKS_PER_THREAD = 4;
+	static final int MIN_CHUNK = 1 << 13;
+
+	final ForkJoinPool pool;
+
+	long keys[] = new long[0];
+	long buffer[] = new long[0];
+	int size = 0;
+
+	public Ranking(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sorts the sentences below size that are not in the mask, best first.
+	 * Returns their number.
+	 */
+	public int sort(float score[], float tiebreak[], SentenceMask ignore,
+			int size) {
+		int n = size - ignore.size();
+		if (keys.length < n) {
+			keys = new long[n];
+			buffer = new long[n];
+		}
+		int i = 0;
+		for (int sent = ignore.nextActive(0); sent < size; sent = ignore
+				.nextActive(sent + 1)) {
+			keys[i++] = key(score[sent], sent);
+		}
+		this.size = i;
+
+		int grain = Math.max(MIN_CHUNK, i
+				/ (pool.getParallelism() * CHUNKS_PER_THREAD));
+		pool.invoke(new Sort(keys, buffer, 0, i, grain));
+
+		if (tiebreak != null) {
+			int start = 0;
+			for (int end = 1; end <= i; end++) {
+				if (end < i && keys[end] >>> 32 == keys[start] >>> 32) {
+					continue;
+				}
+				if (end - start > 1) {
+					for (int j = start; j < end; j++) {
+						keys[j] = key(tiebreak[sentence(j)], sentence(j));
+					}
+					Arrays.sort(keys, start, end);
+				}
+				start = end;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Number of sentences of the last sort.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The sentence at the given rank of the last sort.
+	 */
+	public int sentence(int rank) {
+		return unscramble((int) keys[rank] ^ 0x80000000);
+	}
+
+	/**
+	 * Key of a sentence: the descending order of the value in the high half
+	 * and the scrambled sentence number, as unsigned int, in the low half.
+	 */
+	static long key(float value, int sent) {
+		int bits = Float.floatToIntBits(value);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return ((long) ~bits << 32)
+				| ((scramble(sent) ^ 0x80000000) & 0xffffffffL);
+	}
+
+	/**
+	 * Returns the k best sentences below size that are not in the mask,
+	 * best first. The selection keeps a bounded heap of the k best so far,
+	 * so it needs O(k) space and O(n log k) time. tiebreak may be null.
+	 */
+	public static int[] top(float score[], float tiebreak[],
+			SentenceMask ignore, int size, int k) {
+		int heap[] = new int[Math.max(k, 0)];
+		int n = 0;
+		if (heap.length == 0) {
+			return heap;
+		}
+		// the root of the heap is the worst of the k best
+		for (int sent = ignore.nextActive(0); sent < size; sent = ignore
+				.nextActive(sent + 1)) {
+			if (n < heap.length) {
+				heap[n] = sent;
+				siftUp(score, tiebreak, heap, n++);
+			} else if (better(score, tiebreak, sent, heap[0])) {
+				heap[0] = sent;
+				siftDown(score, tiebreak, heap, 0, n);
+			}
+		}
+		// heap sort: moving the worst to the end leaves the best in front
+		for (int end = n - 1; end > 0; end--) {
+			int worst = heap[0];
+			heap[0] = heap[end];
+			heap[end] = worst;
+			siftDown(score, tiebreak, heap, 0, end);
+		}
+		if (n < heap.length) {
+			int top[] = new int[n];
+			System.arraycopy(heap, 0, top, 0, n);
+			return top;
+		}
+		return heap;
+	}
+
+	static boolean better(float score[], float tiebreak[], int a, int b) {
+		int cmp = Float.compare(score[a], score[b]);
+		if (cmp == 0 && tiebreak != null) {
+			cmp = Float.compare(tiebreak[a], tiebreak[b]);
+		}
+		return cmp == 0 ? scramble(a) < scramble(b) : cmp > 0;
+	}
+
+	/**
+	 * A bijection on int (the murmur3 finalizer).
+	 */
+	static int scramble(int sent) {
+		int h = sent;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	static int unscramble(int h) {
+		h ^= h >>> 16;
+		h *= 0x7ed1b41d;
+		h ^= (h >>> 13) ^ (h >>> 26);
+		h *= 0xa5cb9243;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Merge sort of keys[from .. to-1] that sorts chunks of at most grain
+	 * keys in parallel and merges them through buffer.
+	 */
+	static class Sort extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final long keys[];
+		final long buffer[];
+		final int from;
+		final int to;
+		final int grain;
+
+		Sort(long keys[], long buffer[], int from, int to, int grain) {
+			this.keys = keys;
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				Arrays.sort(keys, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Sort(keys, buffer, from, mid, grain), new Sort(keys,
+					buffer, mid, to, grain));
+			if (keys[mid - 1] <= keys[mid]) {
+				return;
+			}
+			System.arraycopy(keys, from, buffer, from, mid - from);
+			int i = from;
+			int j = mid;
+			int k = from;
+			while (i < mid && j < to) {
+				keys[k++] = buffer[i] <= keys[j] ? buffer[i++] : keys[j++];
+			}
+			while (i < mid) {
+				keys[k++] = buffer[i++];
+			}
+		}
+	}
+
+	private static void siftUp(float score[], float tiebreak[], int heap[],
+			int i) {
+		int sent = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!better(score, tiebreak, heap[parent], sent)) {
+				break;
+			}
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = sent;
+	}
+
+	private static void siftDown(float score[], float tiebreak[], int heap[],
+			int i, int n) {
+		int sent = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n
+					&& better(score, tiebreak, heap[child], heap[child + 1])) {
+				child++;
+			}
+			if (!better(score, tiebreak, sent, heap[child])) {
+				break;
+			}
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = sent;
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reduction used to marginalize a target word over the source sentence:
+ * given the log-probabilities row[0 .. length-1] it returns
+ * log(sum(exp(row[i]))).
+ */
+
+public abstract class ScoringEngine {
+
+	private static Logger log = LogManager.getLogger(ScoringEngine.class);
+
+	public abstract float logSumExp(float row[], int length);
+
+	/**
+	 * Adds the row to a running log-space sum.
+	 */
+	public float accumulate(float sum, float row[], int length) {
+		return InvitationModel.logAdd(sum, logSumExp(row, length));
+	}
+
+	public static ScoringEngine forName(String name) {
+		if (name.equals("pairwise")) {
+			return new Pairwise();
+		} else if (name.equals("lse")) {
+			return new Scalar();
+		} else if (name.equals("vector")) {
+			return vector();
+		}
+		throw new IllegalArgumentException("Unknown scoring engine: " + name);
+	}
+
+	/**
+	 * Returns the SIMD engine when it was compiled in and the
+	 * jdk.incubator.vector module is available, the scalar engine otherwise.
+	 */
+	static ScoringEngine vector() {
+		try {
+			ScoringEngine engine = (ScoringEngine) Class.forName(
+					"nl.uva.illc.dataselection.VectorScoringEngine")
+					.getDeclaredConstructor().newInstance();
+			engine.logSumExp(new float[] { 0f }, 1);
+			return engine;
+		} catch (ReflectiveOperationException e) {
+			// not compiled in (build without the vector profile)
+			return scalar(e);
+		} catch (NoClassDefFoundError e) {
+			// jdk.incubator.vector not added to the module graph
+			return scalar(e);
+		} catch (UnsupportedClassVersionError e) {
+			// compiled for a newer JDK than the running one
+			return scalar(e);
+		}
+	}
+
+	private static ScoringEngine scalar(Throwable reason) {
+		log.warn("Vector scoring engine not available (" + reason
+				+ "), using lse");
+		return new Scalar();
+	}
+
+	/**
+	 * Folds InvitationModel.logAdd over the row, one log and one exp per
+	 * element.
+	 */
+	static class Pairwise extends ScoringEngine {
+
+		@Override
+		public float logSumExp(float row[], int length) {
+			float sum = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < length; i++) {
+				sum = InvitationModel.logAdd(sum, row[i]);
+			}
+			return sum;
+		}
+
+		@Override
+		public float accumulate(float sum, float row[], int length) {
+			for (int i = 0; i < length; i++) {
+				sum = InvitationModel.logAdd(sum, row[i]);
+			}
+			return sum;
+		}
+
+		@Override
+		public String toString() {
+			return "pairwise";
+		}
+	}
+
+	/**
+	 * Finds the maximum first and sums exp(row[i] - max), so the row costs one
+	 * exp per element and a single log.
+	 */
+	static class Scalar extends ScoringEngine {
+
+		@Override
+		public float logSumExp(float row[], int length) {
+			float max = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < length; i++) {
+				max = Math.max(max, row[i]);
+			}
+			if (max == Float.NEGATIVE_INFINITY) {
+				return max;
+			}
+			double sum = 0;
+			for (int i = 0; i < length; i++) {
+				sum += Math.exp(row[i] - max);
+			}
+			return max + (float) Math.log(sum);
+		}
+
+		@Override
+		public String toString() {
+			return "lse";
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parallel loop over a range of sentences on a work-stealing pool. Ranges are
+ * split recursively at the point that halves their cost until a chunk costs
+ * less than the grain, so long sentences end up in small chunks and idle
+ * workers steal the remaining halves of busy ones.
+ * 
+ * The cost of sentences i .. j-1 is cost[j] - cost[i], see
+ * {@link #costs(Corpus, Corpus)} and {@link #lengths(Corpus)}.
+ */
+
+public class SentenceLoop {
+
+	// number of chunks per worker when the cost is spread evenly
+	static final int CHUNKS_PER_THREAD = 16;
+
+	public interface Body {
+		void run(int start, int end);
+	}
+
+	/**
+	 * Cost prefix of a sentence-pair loop where every (source word, target
+	 * word) pair is visited.
+	 */
+	public static long[] costs(Corpus src, Corpus trg) {
+		long cost[] = new long[src.size() + 1];
+		for (int i = 0; i < src.size(); i++) {
+			cost[i + 1] = cost[i] + (long) src.length(i) * trg.length(i);
+		}
+		return cost;
+	}
+
+	/**
+	 * Cost prefix of a loop that visits every word of a sentence.
+	 */
+	public static long[] lengths(Corpus corpus) {
+		long cost[] = new long[corpus.size() + 1];
+		for (int i = 0; i < corpus.size(); i++) {
+			cost[i + 1] = cost[i] + corpus.length(i);
+		}
+		return cost;
+	}
+
+	public static void run(ForkJoinPool pool, long cost[], int start,
+			int end, Body body) {
+		long grain = (cost[end] - cost[start])
+				/ ((long) pool.getParallelism() * CHUNKS_PER_THREAD);
+		pool.invoke(new Task(cost, start, end, Math.max(grain, 1), body));
+	}
+
+	static class Task extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final long cost[];
+		final int start;
+		final int end;
+		final long grain;
+		final Body body;
+
+		Task(long cost[], int start, int end, long grain, Body body) {
+			this.cost = cost;
+			this.start = start;
+			this.end = end;
+			this.grain = grain;
+			this.body = body;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= 1 || cost[end] - cost[start] <= grain) {
+				body.run(start, end);
+				return;
+			}
+			int mid = split();
+			invokeAll(new Task(cost, start, mid, grain, body), new Task(cost,
+					mid, end, grain, body));
+		}
+
+		// first index whose prefix cost reaches the middle of the range
+		private int split() {
+			long half = cost[start] + (cost[end] - cost[start]) / 2;
+			int lo = start + 1;
+			int hi = end - 1;
+			while (lo < hi) {
+				int m = (lo + hi) >>> 1;
+				if (cost[m] < half) {
+					lo = m + 1;
+				} else {
+					hi = m;
+				}
+			}
+			return lo;
+		}
+	}
+
+}
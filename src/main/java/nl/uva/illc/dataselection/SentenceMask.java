@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+/**
+ * Set of sentence numbers backed by a bitset, one bit per sentence. Used to
+ * mask out the sentences that are ignored in scoring and updates.
+ * 
+ * The mask is modified only by the coordinating thread between the parallel
+ * phases; handing the next phase to an executor or pool publishes the
+ * changes to its workers. Readers never see a partially grown array because
+ * the array reference is replaced in a single volatile write.
+ */
+
+public class SentenceMask {
+
+	private volatile long words[];
+
+	public SentenceMask() {
+		this(0);
+	}
+
+	public SentenceMask(int size) {
+		words = new long[(size + 63) >>> 6];
+	}
+
+	/**
+	 * Mask over the bits of words, as returned by {@link #toArray()}.
+	 */
+	public SentenceMask(long words[]) {
+		this.words = words.clone();
+	}
+
+	public long[] toArray() {
+		return words.clone();
+	}
+
+	public boolean contains(int sent) {
+		long words[] = this.words;
+		int w = sent >>> 6;
+		return w < words.length && (words[w] & (1L << sent)) != 0;
+	}
+
+	public void add(int sent) {
+		int w = sent >>> 6;
+		long words[] = this.words;
+		if (w >= words.length) {
+			long grown[] = new long[Math.max(w + 1, 2 * words.length)];
+			System.arraycopy(words, 0, grown, 0, words.length);
+			words = grown;
+		}
+		words[w] |= 1L << sent;
+		this.words = words;
+	}
+
+	public int size() {
+		int size = 0;
+		for (long word : words) {
+			size += Long.bitCount(word);
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the first sentence at or after from that is not in the mask.
+	 */
+	public int nextActive(int from) {
+		long words[] = this.words;
+		int w = from >>> 6;
+		if (w >= words.length) {
+			return from;
+		}
+		long word = ~words[w] & (-1L << from);
+		while (word == 0) {
+			if (++w == words.length) {
+				return w << 6;
+			}
+			word = ~words[w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+}
@@ -0,0 +1,661 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import net.openhft.koloboke.collect.map.IntFloatCursor;
+import net.openhft.koloboke.collect.map.IntObjCursor;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
+import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
+
+/**
+ * Directory through which the coordinator of a sharded training hands the
+ * EM iterations to worker processes, e.g. a local directory for several
+ * JVMs on one machine or a network file system shared by a cluster. Every
+ * file is written under a temporary name and renamed into place, so a
+ * file that exists is complete. The files, little endian:
+ * 
+ * <pre>
+ * run                                    int magic, int version, int run
+ * mixdomain.src.bin, mixdomain.trg.bin   the mix-domain corpora, see Corpus
+ * lm.bin                                 int magic, int version, int run, int size, int lms
+ *                                        float lm[lms][size]
+ * model.[i].ttable.[0-3].bin             the tables of iteration i
+ * model.[i].bin                          int magic, int version, int run, int iteration, int workers
+ *                                        float pd1, float pd0, float threshold, int mask
+ *                                        int bounds[workers + 1], long ignore[mask]
+ * shard.[i].[w].bin                      int magic, int version, int run, int iteration, int start, int end
+ *                                        float spd0[end - start], float spd1[end - start]
+ *                                        4 x (int entries, int sources, int tw[entries],
+ *                                        int sw[entries], float count[entries],
+ *                                        int source[sources], float total[sources])
+ * heartbeat.[w]                          int magic, int version, int run, int beat
+ * done                                   int magic, int version, int run: the training is over
+ * </pre>
+ * 
+ * Before it does anything else the coordinator removes the files of an
+ * earlier training and writes a new random run ID to run. Workers wait for
+ * a run that is not done yet, and every header carries the run ID, so files
+ * left over from another training are never taken for this one.
+ * model.[i].bin is written after its tables. Worker w scores sentences
+ * bounds[w] .. bounds[w+1]-1 with the model of iteration i and answers
+ * with their posteriors and their counts for the four tables. While it
+ * takes part in a run a worker counts up its heartbeat every second; the
+ * coordinator fails the training when a worker it waits for has neither
+ * answered nor beaten for the timeout.
+ */
+
+public class SharedDirectory {
+
+	static final int LM_MAGIC = 0x49534c4d; // "ISLM"
+	static final int MODEL_MAGIC = 0x49534d44; // "ISMD"
+	static final int SHARD_MAGIC = 0x49535348; // "ISSH"
+	static final int RUN_MAGIC = 0x4953524e; // "ISRN"
+	static final int VERSION = 2;
+	static final int LM_HEADER_SIZE = 20;
+	static final int MODEL_HEADER_SIZE = 36;
+	static final int SHARD_HEADER_SIZE = 24;
+
+	// how often a missing file is looked for
+	static final long POLL_MILLIS = 100;
+
+	// how often a worker beats
+	static final long HEARTBEAT_MILLIS = 1000;
+
+	final File dir;
+
+	// ID of the training this process takes part in, 0 before it joined one
+	volatile int run = 0;
+
+	// coordinator: the last heartbeat seen of every worker and when it was
+	// seen, on the clock of the coordinator
+	int beats[] = null;
+	long beatTimes[] = null;
+
+	/**
+	 * The EM state a worker scores its shard with.
+	 */
+	public static class Model {
+
+		final int iteration;
+		final float pd1;
+		final float pd0;
+		final float threshold;
+		final int bounds[];
+		final long ignore[];
+		final TranslationTable tables[];
+
+		Model(int iteration, float pd1, float pd0, float threshold,
+				int bounds[], long ignore[], TranslationTable tables[]) {
+			this.iteration = iteration;
+			this.pd1 = pd1;
+			this.pd0 = pd0;
+			this.threshold = threshold;
+			this.bounds = bounds;
+			this.ignore = ignore;
+			this.tables = tables;
+		}
+
+		/**
+		 * The ignored sentences of shard start .. end-1, numbered from 0.
+		 */
+		SentenceMask ignore(int start, int end) {
+			SentenceMask all = new SentenceMask(ignore);
+			SentenceMask shard = new SentenceMask(end - start);
+			for (int sent = start; sent < end; sent++) {
+				if (all.contains(sent)) {
+					shard.add(sent - start);
+				}
+			}
+			return shard;
+		}
+
+	}
+
+	public SharedDirectory(String dir) {
+		this.dir = new File(dir);
+		this.dir.mkdirs();
+	}
+
+	File file(String name) {
+		return new File(dir, name);
+	}
+
+	String corpusFileName(String language) {
+		return file("mixdomain." + language + ".bin").getPath();
+	}
+
+	String modelFileName(int iteration) {
+		return file("model." + iteration + ".bin").getPath();
+	}
+
+	String tableFileName(int iteration, int table) {
+		return file("model." + iteration + ".ttable." + table + ".bin")
+				.getPath();
+	}
+
+	String shardFileName(int iteration, int worker) {
+		return file("shard." + iteration + "." + worker + ".bin").getPath();
+	}
+
+	/**
+	 * Removes the files of an earlier training.
+	 */
+	void clear() {
+		File files[] = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith("model.") || name.startsWith("shard.")
+					|| name.startsWith("heartbeat.")
+					|| name.startsWith("mixdomain.")
+					|| name.startsWith("lm.bin") || name.startsWith("run")
+					|| name.startsWith("done")) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Starts a new training in the directory: removes the files of earlier
+	 * ones and announces a fresh run ID. Called by the coordinator before
+	 * anything else.
+	 */
+	public int start(int workers) throws IOException {
+		clear();
+		Random random = new Random();
+		int id;
+		do {
+			id = random.nextInt();
+		} while (id == 0);
+		run = id;
+		beats = new int[workers];
+		beatTimes = new long[workers];
+		writeMarker("run", RUN_MAGIC, VERSION, run);
+		return run;
+	}
+
+	/**
+	 * Waits for a training that is not over yet and joins it; returns its
+	 * run ID.
+	 */
+	public int join() throws InterruptedException {
+		while (true) {
+			int marker[] = readMarker("run", 3);
+			if (marker != null && !isDone(marker[2])) {
+				run = marker[2];
+				return run;
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+	}
+
+	/**
+	 * Whether the training this process joined is over, as opposed to
+	 * replaced by a new one.
+	 */
+	public boolean isDone() {
+		return isDone(run);
+	}
+
+	private boolean isDone(int id) {
+		int marker[] = readMarker("done", 3);
+		return marker != null && marker[2] == id;
+	}
+
+	private boolean isReplaced() {
+		int marker[] = readMarker("run", 3);
+		return marker == null || marker[2] != run;
+	}
+
+	private void writeMarker(String name, int... values) throws IOException {
+		String fileName = file(name).getPath();
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			BinaryFiles.writeInts(file.getChannel(), ByteBuffer.allocate(
+					4 * values.length).order(ByteOrder.LITTLE_ENDIAN), values);
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+	}
+
+	/**
+	 * Reads a small marker file of the given number of ints, null if it is
+	 * missing or not a marker of this version.
+	 */
+	private int[] readMarker(String name, int size) {
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(file(name), "r");
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			IntBuffer header = BinaryFiles.header(file.getChannel(), name,
+					RUN_MAGIC, VERSION, size);
+			int values[] = new int[size];
+			header.get(values);
+			return values;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// read only
+			}
+		}
+	}
+
+	/**
+	 * Counts up the heartbeat of the worker in the background for as long
+	 * as it takes part in the current run.
+	 */
+	public void startHeartbeat(final int worker) {
+		final int id = run;
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				int beat = 0;
+				while (SharedDirectory.this.run == id) {
+					try {
+						writeMarker("heartbeat." + worker, RUN_MAGIC, VERSION,
+								id, ++beat);
+						Thread.sleep(HEARTBEAT_MILLIS);
+					} catch (IOException e) {
+						// a missed beat is made up by the next one, the
+						// coordinator only gives up after its timeout
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, "heartbeat-" + worker);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Fails when the worker has neither beaten nor answered for the timeout
+	 * since the coordinator started to wait for it.
+	 */
+	private void checkAlive(int worker, long timeout) throws IOException {
+		int marker[] = readMarker("heartbeat." + worker, 4);
+		int beat = marker != null && marker[2] == run ? marker[3] : 0;
+		long now = System.currentTimeMillis();
+		if (beatTimes[worker] == 0 || beat != beats[worker]) {
+			beats[worker] = beat;
+			beatTimes[worker] = now;
+		} else if (now - beatTimes[worker] > timeout) {
+			throw new IOException("Worker " + worker + " has not answered for "
+					+ (now - beatTimes[worker]) / 1000 + " s"
+					+ (beat == 0 ? ", it never joined the training" : ""));
+		}
+	}
+
+	/**
+	 * Writes what does not change between the iterations: the mix-domain
+	 * corpora and their LM scores.
+	 */
+	public void writeInputs(Corpus src, Corpus trg, float lm[][])
+			throws IOException {
+		src.write(corpusFileName("src"));
+		trg.write(corpusFileName("trg"));
+
+		String fileName = file("lm.bin").getPath();
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BinaryFiles.allocate();
+			BinaryFiles.writeInts(channel, buffer, LM_MAGIC, VERSION, run,
+					lm[0].length, lm.length);
+			for (int i = 0; i < lm.length; i++) {
+				BinaryFiles.writeFloats(channel, buffer, FloatBuffer.wrap(lm[i]));
+			}
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+	}
+
+	public Corpus readCorpus(String language, int start, int end)
+			throws IOException {
+		return Corpus.open(corpusFileName(language), start, end);
+	}
+
+	/**
+	 * Reads the LM scores of sentences start .. end-1.
+	 */
+	public float[][] readLM(int start, int end) throws IOException {
+		String fileName = file("lm.bin").getPath();
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			IntBuffer header = BinaryFiles.header(channel, fileName, LM_MAGIC,
+					VERSION, LM_HEADER_SIZE / 4);
+			checkRun(fileName, header.get(2));
+			int size = header.get(3);
+			float lm[][] = new float[header.get(4)][end - start];
+			for (int i = 0; i < lm.length; i++) {
+				BinaryFiles.map(channel,
+						LM_HEADER_SIZE + 4L * size * i + 4L * start,
+						4L * lm[i].length).asFloatBuffer().get(lm[i]);
+			}
+			return lm;
+		} finally {
+			file.close();
+		}
+	}
+
+	public void writeModel(int iteration, float pd1, float pd0,
+			float threshold, int bounds[], long ignore[],
+			TranslationTable tables[]) throws IOException {
+		for (int i = 0; i < tables.length; i++) {
+			tables[i].write(tableFileName(iteration, i));
+		}
+
+		String fileName = modelFileName(iteration);
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BinaryFiles.allocate();
+			BinaryFiles.writeInts(channel, buffer, MODEL_MAGIC, VERSION, run,
+					iteration, bounds.length - 1, Float.floatToRawIntBits(pd1),
+					Float.floatToRawIntBits(pd0),
+					Float.floatToRawIntBits(threshold), ignore.length);
+			BinaryFiles.writeInts(channel, buffer, IntBuffer.wrap(bounds));
+			BinaryFiles.writeLongs(channel, buffer, LongBuffer.wrap(ignore));
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+	}
+
+	/**
+	 * Waits for the model of the first iteration after the given one and
+	 * returns it, or null once the training is over or was replaced by a
+	 * new one, see {@link #isDone()}.
+	 */
+	public Model nextModel(int after) throws IOException,
+			InterruptedException {
+		while (true) {
+			if (isReplaced()) {
+				return null;
+			}
+			int next = Integer.MAX_VALUE;
+			File files[] = dir.listFiles();
+			for (File file : files != null ? files : new File[0]) {
+				String name = file.getName();
+				if (name.matches("model\\.\\d+\\.bin")) {
+					int iteration = Integer.parseInt(name.substring(6,
+							name.length() - 4));
+					if (iteration > after) {
+						next = Math.min(next, iteration);
+					}
+				}
+			}
+			if (next != Integer.MAX_VALUE) {
+				Model model = readModel(next);
+				if (model != null) {
+					return model;
+				}
+			}
+			if (isDone()) {
+				return null;
+			}
+			Thread.sleep(POLL_MILLIS);
+		}
+	}
+
+	/**
+	 * Reads the model of an iteration, null if it is left over from another
+	 * run and about to be removed.
+	 */
+	Model readModel(int iteration) throws IOException {
+		String fileName = modelFileName(iteration);
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(fileName, "r");
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			FileChannel channel = file.getChannel();
+			IntBuffer header = BinaryFiles.header(channel, fileName,
+					MODEL_MAGIC, VERSION, MODEL_HEADER_SIZE / 4);
+			if (header.get(2) != run) {
+				return null;
+			}
+			int bounds[] = new int[header.get(4) + 1];
+			long ignore[] = new long[header.get(8)];
+			long position = MODEL_HEADER_SIZE;
+			BinaryFiles.map(channel, position, 4L * bounds.length)
+					.asIntBuffer().get(bounds);
+			position += 4L * bounds.length;
+			BinaryFiles.map(channel, position, 8L * ignore.length)
+					.asLongBuffer().get(ignore);
+
+			TranslationTable tables[] = new TranslationTable[4];
+			for (int i = 0; i < tables.length; i++) {
+				tables[i] = TranslationTable.load(tableFileName(iteration, i));
+			}
+			return new Model(header.get(3), Float.intBitsToFloat(header
+					.get(5)), Float.intBitsToFloat(header.get(6)),
+					Float.intBitsToFloat(header.get(7)), bounds, ignore,
+					tables);
+		} finally {
+			file.close();
+		}
+	}
+
+	public void writeShard(int iteration, int worker, int start, int end,
+			float sPD[][], TranslationTable counts[], HashIntFloatMap totals[])
+			throws IOException {
+		String fileName = shardFileName(iteration, worker);
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BinaryFiles.allocate();
+			BinaryFiles.writeInts(channel, buffer, SHARD_MAGIC, VERSION, run,
+					iteration, start, end);
+			BinaryFiles.writeFloats(channel, buffer, FloatBuffer.wrap(sPD[0]));
+			BinaryFiles.writeFloats(channel, buffer, FloatBuffer.wrap(sPD[1]));
+			for (int k = 0; k < counts.length; k++) {
+				writeCounts(channel, buffer, counts[k], totals[k]);
+			}
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+	}
+
+	private static void writeCounts(FileChannel channel, ByteBuffer buffer,
+			TranslationTable counts, HashIntFloatMap totals)
+			throws IOException {
+		int entries = counts.size();
+		int tws[] = new int[entries];
+		int sws[] = new int[entries];
+		float values[] = new float[entries];
+		int i = 0;
+		for (IntObjCursor<HashIntFloatMap> c = counts.ttable.cursor(); c
+				.moveNext();) {
+			for (IntFloatCursor e = c.value().cursor(); e.moveNext(); i++) {
+				tws[i] = c.key();
+				sws[i] = e.key();
+				values[i] = e.value();
+			}
+		}
+		int sources[] = new int[totals.size()];
+		float sums[] = new float[totals.size()];
+		i = 0;
+		for (IntFloatCursor e = totals.cursor(); e.moveNext(); i++) {
+			sources[i] = e.key();
+			sums[i] = e.value();
+		}
+		BinaryFiles.writeInts(channel, buffer, entries, sources.length);
+		BinaryFiles.writeInts(channel, buffer, IntBuffer.wrap(tws));
+		BinaryFiles.writeInts(channel, buffer, IntBuffer.wrap(sws));
+		BinaryFiles.writeFloats(channel, buffer, FloatBuffer.wrap(values));
+		BinaryFiles.writeInts(channel, buffer, IntBuffer.wrap(sources));
+		BinaryFiles.writeFloats(channel, buffer, FloatBuffer.wrap(sums));
+	}
+
+	/**
+	 * Waits for the answer of a worker, copies its posteriors into sPD at
+	 * the sentences of its shard and adds its counts, which like them are
+	 * log-counts, to counts and totals.
+	 * The file is removed afterwards. Returns the number of sentences of
+	 * the shard. Fails when the worker has neither answered nor beaten for
+	 * timeout milliseconds.
+	 */
+	public int readShard(int iteration, int worker, float sPD[][],
+			TranslationTable counts[], HashIntFloatMap totals[], long timeout)
+			throws IOException, InterruptedException {
+		String fileName = shardFileName(iteration, worker);
+		File shard = new File(fileName);
+		while (true) {
+			while (!shard.exists()) {
+				checkAlive(worker, timeout);
+				Thread.sleep(POLL_MILLIS);
+			}
+			RandomAccessFile file = new RandomAccessFile(fileName, "r");
+			try {
+				int size = readShard(file.getChannel(), fileName, iteration,
+						sPD, counts, totals);
+				if (size >= 0) {
+					return size;
+				}
+			} finally {
+				file.close();
+				// an answer of a worker still in another training is
+				// dropped, the one of this training follows
+				shard.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads a shard of this training, -1 if it is of another one.
+	 */
+	private int readShard(FileChannel channel, String fileName,
+			int iteration, float sPD[][], TranslationTable counts[],
+			HashIntFloatMap totals[]) throws IOException {
+		IntBuffer header = BinaryFiles.header(channel, fileName, SHARD_MAGIC,
+				VERSION, SHARD_HEADER_SIZE / 4);
+		if (header.get(2) != run) {
+			return -1;
+		}
+		if (header.get(3) != iteration) {
+			throw new IOException(fileName + " is not of iteration "
+					+ iteration);
+		}
+		int start = header.get(4);
+		int size = header.get(5) - start;
+		long position = SHARD_HEADER_SIZE;
+		for (int i = 0; i < 2; i++) {
+			FloatBuffer values = BinaryFiles.map(channel, position,
+					4L * size).asFloatBuffer();
+			values.get(sPD[i], start, size);
+			position += 4L * size;
+		}
+		for (int k = 0; k < counts.length; k++) {
+			if (counts[k] == null) {
+				counts[k] = new TranslationTable();
+				totals[k] = HashIntFloatMaps.newMutableMap();
+			}
+			position = readCounts(channel, position, counts[k], totals[k]);
+		}
+		return size;
+	}
+
+	private static long readCounts(FileChannel channel, long position,
+			TranslationTable counts, HashIntFloatMap totals)
+			throws IOException {
+		IntBuffer sizes = BinaryFiles.map(channel, position, 8).asIntBuffer();
+		int entries = sizes.get(0);
+		int sources = sizes.get(1);
+		position += 8;
+		IntBuffer tws = BinaryFiles.map(channel, position, 4L * entries)
+				.asIntBuffer();
+		position += 4L * entries;
+		IntBuffer sws = BinaryFiles.map(channel, position, 4L * entries)
+				.asIntBuffer();
+		position += 4L * entries;
+		FloatBuffer values = BinaryFiles.map(channel, position, 4L * entries)
+				.asFloatBuffer();
+		position += 4L * entries;
+		for (int i = 0; i < entries; i++) {
+			int tw = tws.get(i);
+			int sw = sws.get(i);
+			counts.put(tw, sw, InvitationModel.logAdd(
+					counts.get(tw, sw, Float.NEGATIVE_INFINITY), values.get(i)));
+		}
+		IntBuffer keys = BinaryFiles.map(channel, position, 4L * sources)
+				.asIntBuffer();
+		position += 4L * sources;
+		FloatBuffer sums = BinaryFiles.map(channel, position, 4L * sources)
+				.asFloatBuffer();
+		position += 4L * sources;
+		for (int i = 0; i < sources; i++) {
+			int sw = keys.get(i);
+			totals.put(sw, InvitationModel.logAdd(
+					totals.getOrDefault(sw, Float.NEGATIVE_INFINITY), sums.get(i)));
+		}
+		return position;
+	}
+
+	/**
+	 * Removes the model of an iteration once no worker reads it any more.
+	 */
+	public void removeModel(int iteration) {
+		new File(modelFileName(iteration)).delete();
+		for (int i = 0; i < 4; i++) {
+			new File(tableFileName(iteration, i)).delete();
+		}
+	}
+
+	private void checkRun(String fileName, int id) throws IOException {
+		if (id != run) {
+			throw new IOException(fileName + " is of another training");
+		}
+	}
+
+	/**
+	 * Tells the workers that the training is over.
+	 */
+	public void finish() throws IOException {
+		writeMarker("done", RUN_MAGIC, VERSION, run);
+	}
+
+}
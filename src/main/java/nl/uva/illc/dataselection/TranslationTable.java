@@ -18,6 +18,11 @@
 
 package nl.uva.illc.dataselection;
 
+import java.io.IOException;
+import java.util.Arrays;
+
+import net.openhft.koloboke.collect.map.IntFloatCursor;
+import net.openhft.koloboke.collect.map.IntObjCursor;
 import net.openhft.koloboke.collect.map.hash.HashIntFloatMap;
 import net.openhft.koloboke.collect.map.hash.HashIntFloatMaps;
 import net.openhft.koloboke.collect.map.hash.HashIntObjMap;
@@ -25,18 +30,90 @@ import net.openhft.koloboke.collect.map.hash.HashIntObjMaps;
 
 public class TranslationTable {
 
+	// bits per log-probability of the frozen tables: 32 (float), 16 or 8,
+	// see QuantizedTranslationTable; the mutable tables are always float
+	public static int QUANTIZATION_BITS = 32;
+
+	// number of frequent target and source words whose entries the frozen
+	// tables keep in a dense block, see HybridTranslationTable; 0 for none
+	public static int DENSE_WORDS = 0;
+
+	// the entries in float; null while frozen, unless the frozen copy is
+	// quantized and the training has to go on from the exact values
 	public HashIntObjMap<HashIntFloatMap> ttable = null;
 
+	// read-only copy of the table, set while the table is frozen
+	FrozenTranslationTable frozen = null;
+
 	public TranslationTable() {
 		ttable = HashIntObjMaps.newMutableMap();
 	}
 
 	public TranslationTable(TranslationTable toCopy) {
-		this.ttable = HashIntObjMaps.newMutableMap();
-		this.ttable.putAll(toCopy.ttable);
+		if (toCopy.frozen != null) {
+			this.frozen = toCopy.frozen;
+		} else {
+			this.ttable = HashIntObjMaps.newMutableMap();
+			this.ttable.putAll(toCopy.ttable);
+		}
+	}
+
+	/**
+	 * Converts the table into the compact read-only layout, quantized to
+	 * QUANTIZATION_BITS and with a dense block of DENSE_WORDS words, and
+	 * releases the hash maps. Quantized tables keep the hash maps instead,
+	 * so that the quantization error of one M-step is not carried into the
+	 * next: only the view used for scoring and snapshots is quantized. Any
+	 * later modification thaws the table back into hash maps; the returned
+	 * view stays valid and unchanged.
+	 */
+	public FrozenTranslationTable freeze() {
+		if (frozen == null) {
+			frozen = DENSE_WORDS > 0 ? HybridTranslationTable.build(ttable,
+					DENSE_WORDS) : compact(ttable);
+			if (QUANTIZATION_BITS == 32) {
+				ttable = null;
+			}
+		}
+		return frozen;
+	}
+
+	static FrozenTranslationTable compact(HashIntObjMap<HashIntFloatMap> ttable) {
+		return QUANTIZATION_BITS < 32 ? QuantizedTranslationTable.build(
+				ttable, QUANTIZATION_BITS) : CompactTranslationTable
+				.build(ttable);
+	}
+
+	/**
+	 * Opens a snapshot written by {@link #write(String)}. The returned table
+	 * is frozen and served from the memory-mapped file.
+	 */
+	public static TranslationTable load(String fileName) throws IOException {
+		TranslationTable table = new TranslationTable();
+		table.ttable = null;
+		table.frozen = MappedTranslationTable.open(fileName);
+		return table;
+	}
+
+	public void write(String fileName) throws IOException {
+		freeze().write(fileName);
+	}
+
+	public boolean isFrozen() {
+		return frozen != null;
+	}
+
+	private void thaw() {
+		if (frozen != null) {
+			if (ttable == null) {
+				ttable = frozen.toMap();
+			}
+			frozen = null;
+		}
 	}
 
 	public void put(int tw, int sw, float value) {
+		thaw();
 		HashIntFloatMap tMap = ttable.get(tw);
 		if (tMap == null) {
 			tMap = HashIntFloatMaps.newMutableMap();
@@ -46,6 +123,7 @@ public class TranslationTable {
 	}
 
 	public void increas(int tw, int sw, float value) {
+		thaw();
 		HashIntFloatMap tMap = ttable.get(tw);
 		if (tMap == null) {
 			tMap = HashIntFloatMaps.newMutableMap();
@@ -55,6 +133,9 @@ public class TranslationTable {
 	}
 
 	public float get(int tw, int sw) {
+		if (frozen != null) {
+			return frozen.get(tw, sw);
+		}
 		HashIntFloatMap tMap = ttable.get(tw);
 		if (tMap != null) {
 			if (tMap.containsKey(sw)) {
@@ -69,14 +150,97 @@ public class TranslationTable {
 		return Float.isNaN(value) ? d : value;
 	}
 
+	public void gather(int tw, int ssent[], float d, float out[]) {
+		gather(tw, ssent, 0, ssent.length, d, out);
+	}
+
+	/**
+	 * Looks up tw against the source words words[from .. to-1], writing the
+	 * log-probabilities to out[0 .. to-from-1] and d for the missing entries.
+	 */
+	public void gather(int tw, int words[], int from, int to, float d,
+			float out[]) {
+		if (frozen != null) {
+			frozen.gather(tw, words, from, to, d, out);
+			return;
+		}
+		HashIntFloatMap tMap = ttable.get(tw);
+		for (int s = from; s < to; s++) {
+			out[s - from] = tMap != null ? tMap.getOrDefault(words[s], d) : d;
+		}
+	}
+
+	public int size() {
+		if (frozen != null) {
+			return frozen.size();
+		}
+		int size = 0;
+		for (HashIntFloatMap tMap : ttable.values()) {
+			size += tMap.size();
+		}
+		return size;
+	}
+
 	public void remove(int tw, int sw) {
+		thaw();
 		HashIntFloatMap tMap = ttable.get(tw);
 		if (tMap != null) {
 			tMap.remove(sw);
 		}
 	}
 
+	/**
+	 * Removes the entries below floor and all but the top most probable
+	 * entries of every target word, none if top is 0. Ties at the cut keep
+	 * the lower source words, so the result does not depend on the hash
+	 * order. Returns the number of removed entries.
+	 */
+	public int prune(int top, float floor) {
+		thaw();
+		int removed = 0;
+		long keys[] = new long[0];
+		for (IntObjCursor<HashIntFloatMap> c = ttable.cursor(); c.moveNext();) {
+			HashIntFloatMap tMap = c.value();
+			for (IntFloatCursor e = tMap.cursor(); e.moveNext();) {
+				if (e.value() < floor) {
+					e.remove();
+					removed++;
+				}
+			}
+			if (top > 0 && tMap.size() > top) {
+				if (keys.length < tMap.size()) {
+					keys = new long[tMap.size()];
+				}
+				int size = 0;
+				for (IntFloatCursor e = tMap.cursor(); e.moveNext();) {
+					keys[size++] = pruneKey(e.key(), e.value());
+				}
+				Arrays.sort(keys, 0, size);
+				long cut = keys[size - top];
+				for (IntFloatCursor e = tMap.cursor(); e.moveNext();) {
+					if (pruneKey(e.key(), e.value()) < cut) {
+						e.remove();
+						removed++;
+					}
+				}
+			}
+			if (tMap.isEmpty()) {
+				c.remove();
+			}
+		}
+		return removed;
+	}
+
+	// ascending order of the entries of a row: by probability, then by
+	// descending source word
+	private static long pruneKey(int sw, float value) {
+		int bits = Float.floatToIntBits(value);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return ((long) bits << 32) | (~sw & 0xffffffffL);
+	}
+
 	public void normalize() {
+		thaw();
 		for (int tw : ttable.keySet()) {
 			HashIntFloatMap tMap = ttable.get(tw);
 			float sum = 0;
@@ -91,13 +255,14 @@ public class TranslationTable {
 
 	public int[] getAlignment(int ssent[], int tsent[]) {
 		int alignments[] = new int[tsent.length];
+		float row[] = new float[ssent.length];
 		for (int t = 1; t < tsent.length; t++) {
 			int tw = tsent[t];
-			float max_p = 0f;
+			float max_p = Float.NEGATIVE_INFINITY;
 			int ind = -1;
+			this.gather(tw, ssent, Float.NEGATIVE_INFINITY, row);
 			for (int s = 0; s < ssent.length; s++) {
-				int sw = ssent[s];
-				float p = this.get(tw, sw, 0f);
+				float p = row[s];
 				if (p >= max_p) {
 					max_p = p;
 					ind = s;
@@ -0,0 +1,323 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Word codes keyed by the UTF-8 bytes of the words, so a tokenizer can look
+ * up a token straight from the file buffer without decoding it into a
+ * String. Codes are handed out in order of first appearance starting at
+ * first, until {@link #sortByFrequency} renumbers them; the bytes of all
+ * words are kept in one pool.
+ * 
+ * The binary file layout, little endian:
+ * 
+ * <pre>
+ * int magic, int version, int first, int size
+ * long fingerprint
+ * int starts[size + 1]
+ * byte bytes[starts[size]]
+ * </pre>
+ */
+
+public class Vocabulary {
+
+	static final int MAGIC = 0x49564f43; // "IVOC"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 24;
+
+	final int first;
+
+	byte bytes[] = new byte[1024];
+	int starts[] = new int[65];
+	int hashes[] = new int[64];
+	int size = 0;
+
+	int slots[] = new int[128];
+
+	public Vocabulary(int first) {
+		this.first = first;
+	}
+
+	/**
+	 * Number of words.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The code the next new word gets; all known codes are below it.
+	 */
+	public int next() {
+		return first + size;
+	}
+
+	/**
+	 * Code of the word buffer[from .. to-1], or -1 if it is unknown.
+	 */
+	public int get(ByteBuffer buffer, int from, int to) {
+		int hash = hash(buffer, from, to);
+		int mask = slots.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int entry = slots[slot] - 1;
+			if (entry < 0) {
+				return -1;
+			}
+			if (hashes[entry] == hash && equals(entry, buffer, from, to)) {
+				return first + entry;
+			}
+		}
+	}
+
+	/**
+	 * Code of the word buffer[from .. to-1], which is added if it is unknown.
+	 */
+	public int add(ByteBuffer buffer, int from, int to) {
+		int hash = hash(buffer, from, to);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		for (;; slot = (slot + 1) & mask) {
+			int entry = slots[slot] - 1;
+			if (entry < 0) {
+				break;
+			}
+			if (hashes[entry] == hash && equals(entry, buffer, from, to)) {
+				return first + entry;
+			}
+		}
+
+		int entry = size++;
+		if (size == hashes.length) {
+			hashes = Arrays.copyOf(hashes, Corpus.Builder.grow(hashes.length));
+			starts = Arrays.copyOf(starts, hashes.length + 1);
+		}
+		int start = starts[entry];
+		int length = to - from;
+		if (start + length > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(start + length,
+					Corpus.Builder.grow(bytes.length)));
+		}
+		for (int i = 0; i < length; i++) {
+			bytes[start + i] = buffer.get(from + i);
+		}
+		starts[entry + 1] = start + length;
+		hashes[entry] = hash;
+		slots[slot] = entry + 1;
+
+		if (2 * size > slots.length) {
+			rehash(2 * slots.length);
+		}
+		return first + entry;
+	}
+
+	/**
+	 * Adds the words of the other vocabulary in their order and returns the
+	 * code each of them has here, indexed by its code there.
+	 */
+	public int[] addAll(Vocabulary other) {
+		int codes[] = new int[other.first + other.size];
+		ByteBuffer buffer = ByteBuffer.wrap(other.bytes);
+		for (int entry = 0; entry < other.size; entry++) {
+			codes[other.first + entry] = add(buffer, other.starts[entry],
+					other.starts[entry + 1]);
+		}
+		return codes;
+	}
+
+	/**
+	 * Renumbers the words in order of decreasing frequency in the corpora,
+	 * ties in the order of first appearance, and returns the new code of
+	 * every word indexed by its old code. Codes below first keep their
+	 * value.
+	 */
+	public int[] sortByFrequency(Corpus... corpora) {
+		long counts[] = new long[size];
+		for (Corpus corpus : corpora) {
+			int words[] = corpus.words();
+			for (int i = 0; i < corpus.start(corpus.size()); i++) {
+				int entry = words[i] - first;
+				if (entry >= 0 && entry < size) {
+					counts[entry]++;
+				}
+			}
+		}
+		long keys[] = new long[size];
+		for (int entry = 0; entry < size; entry++) {
+			keys[entry] = ((long) Integer.MAX_VALUE - Math.min(counts[entry],
+					Integer.MAX_VALUE)) << 32 | entry;
+		}
+		Arrays.sort(keys);
+
+		int codes[] = new int[first + size];
+		for (int code = 0; code < first; code++) {
+			codes[code] = code;
+		}
+		byte sortedBytes[] = new byte[bytes.length];
+		int sortedStarts[] = new int[starts.length];
+		int sortedHashes[] = new int[hashes.length];
+		for (int entry = 0; entry < size; entry++) {
+			int old = (int) keys[entry];
+			codes[first + old] = first + entry;
+			int length = starts[old + 1] - starts[old];
+			System.arraycopy(bytes, starts[old], sortedBytes,
+					sortedStarts[entry], length);
+			sortedStarts[entry + 1] = sortedStarts[entry] + length;
+			sortedHashes[entry] = hashes[old];
+		}
+		bytes = sortedBytes;
+		starts = sortedStarts;
+		hashes = sortedHashes;
+		rehash(slots.length);
+		return codes;
+	}
+
+	/**
+	 * Hash of the words and their codes, which the encoded corpora record
+	 * to tell which vocabulary their codes refer to. Never 0.
+	 */
+	public long fingerprint() {
+		long fingerprint = 0xcbf29ce484222325L;
+		fingerprint = (fingerprint ^ first) * 0x100000001b3L;
+		fingerprint = (fingerprint ^ size) * 0x100000001b3L;
+		for (int entry = 0; entry < size; entry++) {
+			fingerprint = (fingerprint ^ hashes[entry]) * 0x100000001b3L;
+			fingerprint = (fingerprint ^ (starts[entry + 1] - starts[entry]))
+					* 0x100000001b3L;
+		}
+		return fingerprint != 0 ? fingerprint : 1;
+	}
+
+	/**
+	 * Fingerprint of a vocabulary file, 0 if it is missing or of another
+	 * version.
+	 */
+	public static long fingerprint(String fileName) {
+		RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(fileName, "r");
+		} catch (FileNotFoundException e) {
+			return 0;
+		}
+		try {
+			IntBuffer header = BinaryFiles.header(file.getChannel(),
+					fileName, MAGIC, VERSION, HEADER_SIZE / 4);
+			return header.get(4) & 0xffffffffL | (long) header.get(5) << 32;
+		} catch (IOException e) {
+			return 0;
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// read only
+			}
+		}
+	}
+
+	public String word(int code) {
+		int entry = code - first;
+		return new String(bytes, starts[entry], starts[entry + 1]
+				- starts[entry], Charset.forName("UTF8"));
+	}
+
+	public static Vocabulary open(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			IntBuffer header = BinaryFiles.header(channel, fileName, MAGIC,
+					VERSION, HEADER_SIZE / 4);
+			Vocabulary vocabulary = new Vocabulary(header.get(2));
+			int size = header.get(3);
+			int starts[] = new int[size + 1];
+			long position = HEADER_SIZE;
+			BinaryFiles.map(channel, position, 4L * starts.length)
+					.asIntBuffer().get(starts);
+			position += 4L * starts.length;
+			ByteBuffer bytes = BinaryFiles.map(channel, position, starts[size]);
+			for (int entry = 0; entry < size; entry++) {
+				vocabulary.add(bytes, starts[entry], starts[entry + 1]);
+			}
+			return vocabulary;
+		} finally {
+			file.close();
+		}
+	}
+
+	public void write(String fileName) throws IOException {
+		RandomAccessFile file = BinaryFiles.create(fileName);
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = BinaryFiles.allocate();
+			long fingerprint = fingerprint();
+			BinaryFiles.writeInts(channel, buffer, MAGIC, VERSION, first, size,
+					(int) fingerprint, (int) (fingerprint >>> 32));
+			BinaryFiles.writeInts(channel, buffer,
+					IntBuffer.wrap(starts, 0, size + 1));
+			ByteBuffer pool = ByteBuffer.wrap(bytes, 0, starts[size]);
+			while (pool.hasRemaining()) {
+				channel.write(pool);
+			}
+		} finally {
+			file.close();
+		}
+		BinaryFiles.commit(fileName);
+	}
+
+	private boolean equals(int entry, ByteBuffer buffer, int from, int to) {
+		int start = starts[entry];
+		if (starts[entry + 1] - start != to - from) {
+			return false;
+		}
+		for (int i = from; i < to; i++) {
+			if (bytes[start++] != buffer.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		int mask = capacity - 1;
+		for (int entry = 0; entry < size; entry++) {
+			int slot = hashes[entry] & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = entry + 1;
+		}
+	}
+
+	private static int hash(ByteBuffer buffer, int from, int to) {
+		int hash = 0x811c9dc5;
+		for (int i = from; i < to; i++) {
+			hash = (hash ^ buffer.get(i)) * 0x01000193;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+}
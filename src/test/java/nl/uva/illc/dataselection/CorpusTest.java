@@ -0,0 +1,139 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CorpusTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Corpus corpus(int sentences, long seed) {
+		Random random = new Random(seed);
+		Corpus.Builder builder = new Corpus.Builder();
+		for (int sent = 0; sent < sentences; sent++) {
+			builder.addSentence();
+			int length = random.nextInt(30);
+			for (int i = 0; i < length; i++) {
+				builder.addWord(2 + random.nextInt(5000));
+			}
+		}
+		return builder.build();
+	}
+
+	private static void assertSentences(Corpus expected, int from,
+			Corpus actual) {
+		for (int sent = 0; sent < actual.size(); sent++) {
+			assertArrayEquals(expected.get(from + sent), actual.get(sent));
+		}
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+		Corpus corpus = corpus(10000, 1);
+		String fileName = new File(folder.getRoot(), "corpus.bin").getPath();
+		corpus.write(fileName);
+
+		Corpus read = Corpus.open(fileName);
+		assertEquals(corpus.size(), read.size());
+		assertEquals(corpus.start(corpus.size()), read.start(read.size()));
+		assertSentences(corpus, 0, read);
+	}
+
+	@Test
+	public void roundTripRange() throws IOException {
+		Corpus corpus = corpus(5000, 2);
+		String fileName = new File(folder.getRoot(), "corpus.bin").getPath();
+		corpus.write(fileName);
+
+		Corpus read = Corpus.open(fileName, 1234, 4321);
+		assertEquals(4321 - 1234, read.size());
+		assertEquals(0, read.start(0));
+		assertSentences(corpus, 1234, read);
+
+		assertEquals(0, Corpus.open(fileName, 5000, -1).size());
+	}
+
+	@Test
+	public void vocabularyInHeader() throws IOException {
+		Corpus corpus = corpus(100, 5);
+		corpus.vocabulary = 0x8123456789abcdefL;
+		String fileName = new File(folder.getRoot(), "corpus.bin").getPath();
+		corpus.write(fileName);
+
+		assertEquals(corpus.vocabulary, Corpus.vocabulary(fileName));
+		assertEquals(corpus.vocabulary, Corpus.open(fileName).vocabulary);
+		assertEquals(corpus.vocabulary, Corpus.open(fileName, 10, 20)
+				.vocabulary);
+		assertEquals(0, Corpus.vocabulary(fileName + ".missing"));
+	}
+
+	@Test(expected = IOException.class)
+	public void rangeOutside() throws IOException {
+		String fileName = new File(folder.getRoot(), "corpus.bin").getPath();
+		corpus(10, 3).write(fileName);
+		Corpus.open(fileName, 5, 11);
+	}
+
+	@Test
+	public void readIntsInChunks() throws IOException {
+		int values[] = new int[1000];
+		Random random = new Random(4);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt();
+		}
+		File file = folder.newFile("ints.bin");
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			BinaryFiles.writeInts(out.getChannel(), BinaryFiles.allocate(),
+					values);
+		} finally {
+			out.close();
+		}
+
+		// a buffer of 3 ints and a bit forces many partial chunks
+		ByteBuffer buffer = ByteBuffer.allocate(14).order(
+				ByteOrder.LITTLE_ENDIAN);
+		int read[] = new int[values.length + 2];
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			BinaryFiles.readInts(in.getChannel(), buffer, 4L * 7, read, 2,
+					values.length - 7);
+		} finally {
+			in.close();
+		}
+		for (int i = 7; i < values.length; i++) {
+			assertEquals(values[i], read[i - 5]);
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LogMathTest {
+
+	private static void assertClose(float a, float b) {
+		float exact = LogMath.logAddExact(a, b);
+		float table = LogMath.logAddTable(a, b);
+		// plus the float rounding of the result
+		double bound = LogMath.MAX_TABLE_ERROR + 2 * Math.ulp(exact);
+		assertTrue("logAdd(" + a + ", " + b + "): table " + table
+				+ ", exact " + exact, Math.abs(table - exact) <= bound);
+	}
+
+	@Test
+	public void interpolationBound() {
+		double interpolation = 1.0 / (32.0 * LogMath.STEPS * LogMath.STEPS);
+		assertTrue(interpolation < LogMath.MAX_TABLE_ERROR);
+	}
+
+	@Test
+	public void tableWithinBoundOnGrid() {
+		int samples = 200000;
+		for (int i = 0; i <= samples; i++) {
+			float negDiff = LogMath.MIN_DIFF * i / samples;
+			assertClose(0f, negDiff);
+		}
+	}
+
+	@Test
+	public void tableWithinBoundAtOtherMagnitudes() {
+		float offsets[] = { -1000f, -100f, -7.5f, 3f, 50f };
+		for (float offset : offsets) {
+			for (int i = 0; i <= 2000; i++) {
+				float negDiff = LogMath.MIN_DIFF * i / 2000;
+				assertClose(offset, offset + negDiff);
+				assertClose(offset + negDiff, offset);
+			}
+		}
+	}
+
+	@Test
+	public void equalArguments() {
+		float values[] = { -200f, -3.25f, 0f, 12f };
+		for (float a : values) {
+			assertClose(a, a);
+			assertEquals(a + Math.log(2), LogMath.logAddExact(a, a), 1e-5);
+		}
+	}
+
+	@Test
+	public void belowCutoffReturnsMax() {
+		float pairs[][] = { { 0f, -20.001f }, { -5f, -30f }, { 10f, -1e6f } };
+		for (float pair[] : pairs) {
+			assertEquals(pair[0], LogMath.logAddExact(pair[0], pair[1]), 0f);
+			assertEquals(pair[0], LogMath.logAddTable(pair[0], pair[1]), 0f);
+			assertEquals(pair[0], LogMath.logAddTable(pair[1], pair[0]), 0f);
+		}
+	}
+
+	@Test
+	public void atCutoff() {
+		assertClose(0f, LogMath.MIN_DIFF);
+		assertClose(LogMath.MIN_DIFF, 0f);
+	}
+
+	@Test
+	public void negativeInfinity() {
+		float inf = Float.NEGATIVE_INFINITY;
+		assertEquals(inf, LogMath.logAddTable(inf, inf), 0f);
+		assertEquals(-2f, LogMath.logAddTable(-2f, inf), 0f);
+		assertEquals(-2f, LogMath.logAddTable(inf, -2f), 0f);
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * (C) Copyright 2015 ILLC University of Amsterdam (http://www.illc.uva.nl)
+ * 
+ * This work was supported by "STW Open Technologieprogramma" grant
+ * under project name "Data-Powered Domain-Specific Translation Services On Demand" 
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser General Public License
+ * (LGPL) version 2.1 which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/lgpl-2.1.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details. 
+ *
+ */
+
+package nl.uva.illc.dataselection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class RankingTest {
+
+	// few distinct values, so that most sentences tie on the score and
+	// many on the tiebreak score as well
+	static final float VALUES[] = { Float.NEGATIVE_INFINITY, -1e30f, -3.5f,
+			-1f, -Float.MIN_VALUE, -0f, 0f, Float.MIN_VALUE, 2f, 1e30f,
+			Float.POSITIVE_INFINITY };
+
+	static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	@AfterClass
+	public static void shutdown() {
+		pool.shutdown();
+	}
+
+	private static float[] scores(int size, int values, Random random) {
+		float scores[] = new float[size];
+		for (int i = 0; i < size; i++) {
+			scores[i] = VALUES[random.nextInt(values)];
+		}
+		return scores;
+	}
+
+	/**
+	 * The ranking order spelled out: descending score, descending tiebreak
+	 * score, ascending scrambled sentence number.
+	 */
+	private static Integer[] reference(final float score[],
+			final float tiebreak[], SentenceMask ignore, int size) {
+		Integer sentences[] = new Integer[size - ignore.size()];
+		int i = 0;
+		for (int sent = 0; sent < size; sent++) {
+			if (!ignore.contains(sent)) {
+				sentences[i++] = sent;
+			}
+		}
+		Arrays.sort(sentences, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer a, Integer b) {
+				int cmp = Float.compare(score[b], score[a]);
+				if (cmp == 0 && tiebreak != null) {
+					cmp = Float.compare(tiebreak[b], tiebreak[a]);
+				}
+				if (cmp == 0) {
+					cmp = Integer.compare(Ranking.scramble(a),
+							Ranking.scramble(b));
+				}
+				return cmp;
+			}
+		});
+		return sentences;
+	}
+
+	private static SentenceMask mask(int size, Random random) {
+		SentenceMask ignore = new SentenceMask();
+		for (int i = 0; i < size / 10; i++) {
+			ignore.add(random.nextInt(size));
+		}
+		return ignore;
+	}
+
+	@Test
+	public void unscramble() {
+		Random random = new Random(1);
+		for (int i = 0; i < 1000000; i++) {
+			int x = random.nextInt();
+			assertEquals(x, Ranking.unscramble(Ranking.scramble(x)));
+		}
+		for (int x : new int[] { 0, 1, -1, Integer.MIN_VALUE,
+				Integer.MAX_VALUE }) {
+			assertEquals(x, Ranking.unscramble(Ranking.scramble(x)));
+		}
+	}
+
+	private static void assertSort(float score[], float tiebreak[],
+			SentenceMask ignore) {
+		Integer expected[] = reference(score, tiebreak, ignore, score.length);
+		Ranking ranking = new Ranking(pool);
+		assertEquals(expected.length, ranking.sort(score, tiebreak, ignore,
+				score.length));
+		for (int rank = 0; rank < expected.length; rank++) {
+			assertEquals("rank " + rank, (int) expected[rank],
+					ranking.sentence(rank));
+		}
+	}
+
+	@Test
+	public void sort() {
+		Random random = new Random(2);
+		// above MIN_CHUNK, so that the chunks are merged
+		int size = 5 * Ranking.MIN_CHUNK + 123;
+		float score[] = scores(size, VALUES.length, random);
+		assertSort(score, null, new SentenceMask());
+		assertSort(score, null, mask(size, random));
+	}
+
+	@Test
+	public void sortWithTiebreak() {
+		Random random = new Random(3);
+		int size = 5 * Ranking.MIN_CHUNK + 45;
+		float score[] = scores(size, 3, random);
+		float tiebreak[] = scores(size, VALUES.length, random);
+		assertSort(score, tiebreak, new SentenceMask());
+		assertSort(score, tiebreak, mask(size, random));
+	}
+
+	@Test
+	public void sortAllTied() {
+		float score[] = new float[3 * Ranking.MIN_CHUNK];
+		assertSort(score, null, new SentenceMask());
+		assertSort(score, score, new SentenceMask());
+	}
+
+	@Test
+	public void top() {
+		Random random = new Random(4);
+		int size = 20000;
+		float score[] = scores(size, VALUES.length, random);
+		float tiebreak[] = scores(size, 4, random);
+		SentenceMask ignore = mask(size, random);
+		Ranking ranking = new Ranking(pool);
+		for (float t[] : new float[][] { null, tiebreak }) {
+			int n = ranking.sort(score, t, ignore, size);
+			for (int k : new int[] { 0, 1, 7, 1000, n - 1, n, n + 10 }) {
+				int expected[] = new int[Math.min(k, n)];
+				for (int rank = 0; rank < expected.length; rank++) {
+					expected[rank] = ranking.sentence(rank);
+				}
+				assertArrayEquals("k " + k, expected, Ranking.top(score, t,
+						ignore, size, k));
+			}
+		}
+	}
+
+}